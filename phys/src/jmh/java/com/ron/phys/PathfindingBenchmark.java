@@ -0,0 +1,79 @@
+package com.ron.phys;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PathfindingBenchmark {
+    @Param({"32", "128", "512", "2048"})
+    int size;
+
+    @Param({"10"})
+    int rockPercent;
+
+    private Terrain terrain;
+    private AStar aStar;
+    private JumpPointSearch jps;
+    private Loc start;
+    private Loc end;
+    private Loc middle;
+    private int middleCell;
+    private final int[] buffer = new int[8];
+
+    @Setup
+    public void setUp() {
+        Random r = new Random(1234);
+        terrain = new Terrain(r, size, size);
+        for (int x = 1; x < size - 1; x++) {
+            for (int y = 1; y < size - 1; y++) {
+                if (r.nextInt(100) < rockPercent) {
+                    terrain.set(x, y, Terrain.SQ.ROCK);
+                }
+            }
+        }
+
+        start = new Loc(1, 1);
+        end = new Loc(size - 2, size - 2);
+        middle = new Loc(size / 2, size / 2);
+        middleCell = middle.getY() * size + middle.getX();
+        terrain.set(start.getX(), start.getY(), Terrain.SQ.EMPTY);
+        terrain.set(end.getX(), end.getY(), Terrain.SQ.EMPTY);
+
+        aStar = new AStar(terrain);
+        jps = new JumpPointSearch(terrain);
+    }
+
+    @Benchmark
+    public List<Loc> solve() {
+        return aStar.solve(start, end);
+    }
+
+    @Benchmark
+    public List<Loc> solveJumpPoints() {
+        return jps.solve(start, end);
+    }
+
+    @Benchmark
+    public List<Loc> getNeighbors() {
+        return aStar.getNeighbors(middle);
+    }
+
+    @Benchmark
+    public void neighborsIntoBuffer(Blackhole bh) {
+        bh.consume(aStar.neighbors(middleCell, buffer));
+        bh.consume(buffer);
+    }
+}
@@ -0,0 +1,66 @@
+package com.ron.phys;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PhysicsBenchmark {
+    private static final int BODIES = 10000;
+    private static final double DT = 0.01;
+
+    private final Gravity gravity = new Gravity();
+    private Entity[] entities;
+    private BodyStore store;
+    private final NBodyGravity barnesHut = new NBodyGravity();
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Random r = new Random(1234);
+        entities = new Entity[BODIES];
+        for (int i = 0; i < BODIES; i++) {
+            entities[i] = new Rock(new Pos(r.nextDouble() * 1000, 1000 + r.nextDouble() * 1000),
+                    new Velocity(r.nextDouble() - 0.5, r.nextDouble() - 0.5));
+        }
+        barnesHut.setMode(NBodyGravity.Mode.BARNES_HUT);
+        barnesHut.setParallel(true);
+        store = new BodyStore(BODIES);
+        for (Entity e : entities) {
+            store.add(e);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BODIES)
+    public Entity[] gravityApply() {
+        for (Entity e : entities) {
+            gravity.apply(e, DT);
+        }
+        return entities;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BODIES)
+    public BodyStore storeStep() {
+        store.step(DT);
+        return store;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BODIES)
+    public BodyStore barnesHutStep() {
+        store.step(DT, barnesHut);
+        return store;
+    }
+}
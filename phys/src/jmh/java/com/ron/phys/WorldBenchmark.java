@@ -0,0 +1,60 @@
+package com.ron.phys;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WorldBenchmark {
+    // Fixed so every iteration ticks the same terrain and actors
+    private static final long SEED = 1234;
+
+    @Param({"256"})
+    int size;
+
+    @Param({"100", "1000"})
+    int actors;
+
+    private World world;
+    private Random r;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        r = new Random(SEED);
+        world = new World(size, size, SEED);
+        for (int i = 0; i < actors; i++) {
+            world.addActor(new Actor("Actor" + i, randomLoc()));
+        }
+        refillJobs();
+    }
+
+    @Benchmark
+    public World tick() {
+        world.tick();
+        refillJobs();
+        return world;
+    }
+
+    // Keep every actor busy so each tick measures movement, not idling
+    private void refillJobs() {
+        while (world.jobListSize() < 2 * actors) {
+            Loc dest = randomLoc();
+            world.addJob(new MoveToJob(dest.getX(), dest.getY()));
+        }
+    }
+
+    private Loc randomLoc() {
+        return new Loc(1 + r.nextInt(size - 2), 1 + r.nextInt(size - 2));
+    }
+}
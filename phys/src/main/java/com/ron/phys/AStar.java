@@ -1,89 +1,136 @@
 package com.ron.phys;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.logging.Logger;
 
 public class AStar {
+    public static final int STRAIGHT_COST = 10;
+    public static final int DIAGONAL_COST = 14;   // ~ STRAIGHT_COST * sqrt(2)
+
+    private static final int NONE = SearchContext.NONE;
+
+    // Same order as getNeighbors
+    private static final int[] DX = {1, 1, 1, 0, 0, -1, -1, -1};
+    private static final int[] DY = {-1, 0, 1, -1, 1, -1, 0, 1};
+
     private Terrain terrain;
     private int terrainX;
     private int terrainY;
 
     public AStar(Terrain terrain) {
         this.terrain = terrain;
-        this.terrainX = terrain.getBounds()[0];
-        this.terrainY = terrain.getBounds()[1];
+        this.terrainX = terrain.getWidth();
+        this.terrainY = terrain.getHeight();
     }
 
     public List<Loc> solve(Loc start, Loc end) {
-        Logger log = Logger.getLogger("astar");
-
-        List<Loc> openSet = new ArrayList<>(); // The set of nodes that need to be examined
-        openSet.add(start);
-
-        Map<Loc, Loc> cameFrom = new HashMap<>(); // For node n, cameFrom[n] is the node immediately preceding it on the cheapest path from start to n currently known.
-
-        Map<Loc, Integer> gScore = new DefaultHashMap<>(Integer.MAX_VALUE); // For node n, gScore[n] is the cost of the cheapest path from start to n currently known.
-        gScore.put(start, 0);
-
-        // For node n, fScore[n] := gScore[n] + h(n).
-        Map<Loc, Integer> fScore = new DefaultHashMap<>(Integer.MAX_VALUE);
-        fScore.put(start, estimate(start, end));
-//        log.severe("openSet: " + openSet);
-
-        while (openSet.size() > 0) {
-//            log.severe("openSet: " + openSet);
-            // current := the node in openSet having the lowest fScore[] value
-            Map.Entry<Loc, Integer> min = Collections.min(fScore.entrySet(), new Comparator<Map.Entry<Loc, Integer>>() {
-                public int compare(Map.Entry<Loc, Integer> entry1, Map.Entry<Loc, Integer> entry2) {
-                    return entry1.getValue().compareTo(entry2.getValue());
+        boolean metrics = Metrics.isEnabled();
+        long started = metrics ? System.nanoTime() : 0;
+        int expanded = 0;
+        int peakOpen = 1;
+
+        int startCell = cell(start.getX(), start.getY());
+        int endCell = cell(end.getX(), end.getY());
+
+        // gScore(n) is the cost of the cheapest path from start to n currently known,
+        // cameFrom(n) the node immediately preceding it on that path.
+        SearchContext ctx = SearchContext.get(terrainX * terrainY);
+        ctx.begin();
+        ctx.set(startCell, 0, NONE);
+
+        // The open set is keyed on fScore(n) := gScore(n) + h(n).
+        IndexedMinHeap openSet = ctx.openSet();
+        openSet.insertOrDecrease(startCell, estimate(startCell, endCell));
+
+        int[] neighbors = ctx.neighbors;
+        while (!openSet.isEmpty()) {
+            int current = openSet.poll();
+            expanded++;
+            if (current == endCell) {
+                List<Loc> path = reconstructPath(ctx, current);
+                if (metrics) {
+                    Metrics.recordSolve(expanded, peakOpen, path.size(), System.nanoTime() - started);
                 }
-            });
-
-            Loc current = min.getKey();
-//            log.severe("current: " + current);
-            if (current.equals(end)) {
-                return reconstructPath(cameFrom, current);
+                return path;
             }
 
-            openSet.remove(current);
-            for (Loc neighbor : getNeighbors(current)) {
-                // d(current,neighbor) is the weight of the edge from current to neighbor
+            int g = ctx.gScore(current);
+            int cx = current % terrainX;
+            int cy = current / terrainX;
+            int count = neighbors(current, neighbors);
+            for (int i = 0; i < count; i++) {
+                int neighbor = neighbors[i];
+                int nx = neighbor % terrainX;
+                int ny = neighbor / terrainX;
+                if (!terrain.isPassable(nx, ny)) {
+                    continue;
+                }
+
                 // tentative_gScore is the distance from start to the neighbor through current
-                int tentative_gScore = gScore.get(current) + pathCost(current, neighbor);
-                if (tentative_gScore < gScore.get(neighbor)) {
+                int tentative_gScore = g + stepCost(nx - cx, ny - cy);
+                if (tentative_gScore < ctx.gScore(neighbor)) {
                     // This path to neighbor is better than any previous one. Record it!
-                    cameFrom.put(neighbor, current);
-                    gScore.put(neighbor, tentative_gScore);
-                    fScore.put(neighbor, gScore.get(neighbor) + estimate(neighbor, end));
-
-                    if (!openSet.contains(neighbor)) {
-                        openSet.add(neighbor);
-                    }
+                    ctx.set(neighbor, tentative_gScore, current);
+                    openSet.insertOrDecrease(neighbor, tentative_gScore + estimate(neighbor, endCell));
                 }
             }
+            peakOpen = Math.max(peakOpen, openSet.size());
         }
 
+        if (metrics) {
+            Metrics.recordSolve(expanded, peakOpen, -1, System.nanoTime() - started);
+        }
         return null;
     }
 
-    public List<Loc> reconstructPath(Map<Loc, Loc> cameFrom, Loc current) {
-        List<Loc> path = new ArrayList<>();
+    private List<Loc> reconstructPath(SearchContext ctx, int current) {
+        int length = 1;
+        for (int c = current; ctx.cameFrom(c) != NONE; c = ctx.cameFrom(c)) {
+            length++;
+        }
+
+        Loc[] path = new Loc[length];
+        for (int i = length - 1; i >= 0; i--) {
+            path[i] = new Loc(current % terrainX, current / terrainX);
+            current = ctx.cameFrom(current);
+        }
+        return new ArrayList<>(Arrays.asList(path));
+    }
 
-        path.add(current);
-        while (cameFrom.containsKey(current)) {
-            current = cameFrom.get(current);
-            path.add(0, current);
+    /**
+     * Writes the in-bounds neighbours of a packed cell index into buffer, in the same order as
+     * getNeighbors, and returns how many there are. The buffer needs room for 8 cells.
+     */
+    public int neighbors(int cell, int[] buffer) {
+        int x = cell % terrainX;
+        int y = cell / terrainX;
+        int count = 0;
+        for (int i = 0; i < DX.length; i++) {
+            int nx = x + DX[i];
+            int ny = y + DY[i];
+            if ((nx >= 0) && (ny >= 0) && (nx < terrainX) && (ny < terrainY)) {
+                buffer[count++] = cell + DY[i] * terrainX + DX[i];
+            }
         }
-        return path;
+        return count;
     }
 
     public int pathCost(Loc start, Loc end) {
-        return 1;
+        return stepCost(end.getX() - start.getX(), end.getY() - start.getY());
+    }
+
+    static int stepCost(int dx, int dy) {
+        return ((dx != 0) && (dy != 0)) ? DIAGONAL_COST : STRAIGHT_COST;
+    }
+
+    /**
+     * Cost of the cheapest obstacle-free path between two cells: diagonal steps first, then straight.
+     */
+    static int octile(int dx, int dy) {
+        dx = Math.abs(dx);
+        dy = Math.abs(dy);
+        return STRAIGHT_COST * Math.max(dx, dy) + (DIAGONAL_COST - STRAIGHT_COST) * Math.min(dx, dy);
     }
 
     public List<Loc> getNeighbors(Loc loc) {
@@ -92,13 +139,9 @@ public class AStar {
 
         List<Loc> result = new ArrayList<Loc>();
 
-        int[][] offsets = {
-                {1, -1}, {1, 0}, {1, 1},
-                {0, -1}, {0, 1},
-                {-1, -1}, {-1, 0}, {-1, 1}};
-        for (int i = 0; i < 8; i++) {
-            int nx = x + offsets[i][0];
-            int ny = y + offsets[i][1];
+        for (int i = 0; i < DX.length; i++) {
+            int nx = x + DX[i];
+            int ny = y + DY[i];
 
             if ((nx >= 0) && (ny >= 0) && (nx < terrainX) && (ny < terrainY)) {
                 result.add(new Loc(nx, ny));
@@ -108,7 +151,11 @@ public class AStar {
         return result;
     }
 
-    private int estimate(Loc start, Loc end) {
-        return Math.abs(end.getX() - start.getX()) + Math.abs(end.getY() - start.getY());
+    private int estimate(int startCell, int endCell) {
+        return octile(endCell % terrainX - startCell % terrainX, endCell / terrainX - startCell / terrainX);
+    }
+
+    private int cell(int x, int y) {
+        return y * terrainX + x;
     }
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+package com.ron.phys;
+
+import java.util.Arrays;
+
+/**
+ * Point masses kept as parallel arrays, so a whole batch can be stepped in straight loops with
+ * no per-body objects. Velocities are stored as components rather than Velocity's unit vector
+ * and magnitude. view() wraps a body as an Entity for code that still works one entity at a time.
+ */
+public class BodyStore {
+    double[] x;
+    double[] y;
+    double[] vx;
+    double[] vy;
+    double[] mass;
+    double[] radius;
+    private int size;
+
+    // Scratch accelerations for step(dt, gravity)
+    private double[] ax = new double[0];
+    private double[] ay = new double[0];
+
+    public BodyStore() {
+        this(64);
+    }
+
+    public BodyStore(int capacity) {
+        capacity = Math.max(1, capacity);
+        x = new double[capacity];
+        y = new double[capacity];
+        vx = new double[capacity];
+        vy = new double[capacity];
+        mass = new double[capacity];
+        radius = new double[capacity];
+    }
+
+    /**
+     * Adds a body and returns its index, which stays valid until the store is cleared.
+     */
+    public int add(double mass, double x, double y, double vx, double vy) {
+        if (size == this.x.length) {
+            grow(size * 2);
+        }
+        int i = size++;
+        this.mass[i] = mass;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.vx[i] = vx;
+        this.vy[i] = vy;
+        this.radius[i] = 0;
+        return i;
+    }
+
+    public int add(Entity e) {
+        int i = add(e.getMass(), e.getX(), e.getY(), e.getVx(), e.getVy());
+        radius[i] = e.getRadius();
+        return i;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Drops every body, keeping the arrays for reuse. Views of the old bodies become invalid.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public double getX(int i) {
+        return x[i];
+    }
+
+    public double getY(int i) {
+        return y[i];
+    }
+
+    public double getVx(int i) {
+        return vx[i];
+    }
+
+    public double getVy(int i) {
+        return vy[i];
+    }
+
+    public double getMass(int i) {
+        return mass[i];
+    }
+
+    public double getRadius(int i) {
+        return radius[i];
+    }
+
+    public void setRadius(int i, double radius) {
+        this.radius[i] = radius;
+    }
+
+    public void setPos(int i, double x, double y) {
+        this.x[i] = x;
+        this.y[i] = y;
+    }
+
+    public void setVel(int i, double vx, double vy) {
+        this.vx[i] = vx;
+        this.vy[i] = vy;
+    }
+
+    /**
+     * Advances every body by dt under gravity, the same semi-implicit Euler step as
+     * Gravity.apply: velocity first, then position from the new velocity.
+     */
+    public void step(double dt) {
+        double dv = Gravity.G * dt;
+        int n = size;
+        double[] x = this.x;
+        double[] y = this.y;
+        double[] vx = this.vx;
+        double[] vy = this.vy;
+        for (int i = 0; i < n; i++) {
+            vy[i] += dv;
+        }
+        for (int i = 0; i < n; i++) {
+            x[i] += dt * vx[i];
+            y[i] += dt * vy[i];
+        }
+    }
+
+    /**
+     * Advances every body by dt under the bodies' mutual attraction instead of constant gravity.
+     */
+    public void step(double dt, NBodyGravity gravity) {
+        int n = size;
+        if (ax.length < n) {
+            ax = new double[x.length];
+            ay = new double[x.length];
+        }
+        gravity.accelerations(x, y, mass, n, ax, ay);
+        for (int i = 0; i < n; i++) {
+            vx[i] += dt * ax[i];
+            vy[i] += dt * ay[i];
+        }
+        for (int i = 0; i < n; i++) {
+            x[i] += dt * vx[i];
+            y[i] += dt * vy[i];
+        }
+    }
+
+    public Entity view(int i) {
+        if ((i < 0) || (i >= size)) {
+            throw new IndexOutOfBoundsException("No body " + i + ", size " + size);
+        }
+        return new View(this, i);
+    }
+
+    private void grow(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+    }
+
+    /**
+     * An Entity whose state lives in the store. Pos and Velocity are built on each get, so
+     * like an Entity's they are copies.
+     */
+    static class View extends Entity {
+        private final BodyStore store;
+        private final int i;
+
+        View(BodyStore store, int i) {
+            super("Body", store.mass[i], null, null);
+            this.store = store;
+            this.i = i;
+        }
+
+        public int getIndex() {
+            return i;
+        }
+
+        @Override
+        public Pos getPos() {
+            return new Pos(store.x[i], store.y[i]);
+        }
+
+        @Override
+        double getX() {
+            return store.x[i];
+        }
+
+        @Override
+        double getY() {
+            return store.y[i];
+        }
+
+        @Override
+        void moveTo(double x, double y) {
+            store.setPos(i, x, y);
+            if (index != null) {
+                index.put(this, x, y);
+            }
+        }
+
+        @Override
+        public Velocity getVel() {
+            return new Velocity(store.vx[i], store.vy[i]);
+        }
+
+        @Override
+        double getVx() {
+            return store.vx[i];
+        }
+
+        @Override
+        double getVy() {
+            return store.vy[i];
+        }
+
+        @Override
+        public void setVel(Velocity vel) {
+            store.setVel(i, vel.getX() * vel.getMagnitude(), vel.getY() * vel.getMagnitude());
+        }
+
+        @Override
+        void setVel(double vx, double vy) {
+            store.setVel(i, vx, vy);
+        }
+
+        @Override
+        public double getMass() {
+            return store.mass[i];
+        }
+
+        @Override
+        public double getRadius() {
+            return store.radius[i];
+        }
+
+        @Override
+        public void setRadius(double radius) {
+            store.radius[i] = radius;
+        }
+    }
+}
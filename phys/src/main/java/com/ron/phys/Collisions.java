@@ -0,0 +1,259 @@
+package com.ron.phys;
+
+import java.util.Arrays;
+
+/**
+ * Contact resolution for the circles in a BodyStore, run after each integration step.
+ *
+ * The broad phase sorts bodies by the left edge of their bounding box and sweeps along x, so
+ * only bodies whose boxes overlap become candidate pairs. The sort order is kept between steps,
+ * and bodies move little per step, so an insertion sort usually finishes in close to linear time.
+ * The narrow phase pushes overlapping circles apart and off the ground and applies a restitution
+ * impulse. Every buffer is reused, so a step allocates nothing once the buffers have grown.
+ */
+public class Collisions {
+    private double groundY;
+    private double restitution = 0.3;
+    private int iterations = 4;
+    private double correction = 0.8;    // fraction of the overlap removed per iteration
+
+    private int[] order = new int[0];
+    private int sorted;                 // bodies already in order, in case more were added
+    private int[] scratch = new int[0];
+    private double[] minX = new double[0];
+
+    // Candidate pairs from the broad phase, as (a, b) index pairs
+    private int[] pairs = new int[64];
+    private int pairCount;
+    private int contacts;
+    private int groundContacts;
+
+    public double getGroundY() {
+        return groundY;
+    }
+
+    public void setGroundY(double groundY) {
+        this.groundY = groundY;
+    }
+
+    public double getRestitution() {
+        return restitution;
+    }
+
+    public void setRestitution(double restitution) {
+        this.restitution = restitution;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    /**
+     * Candidate pairs found by the last broad phase.
+     */
+    public int getPairCount() {
+        return pairCount;
+    }
+
+    /**
+     * Pairs that actually overlapped during the last resolve, counted once per pair.
+     */
+    public int getContactCount() {
+        return contacts;
+    }
+
+    public int getGroundContactCount() {
+        return groundContacts;
+    }
+
+    /**
+     * Index pair i of the last broad phase, as { a, b } into out.
+     */
+    public void getPair(int i, int[] out) {
+        out[0] = pairs[2 * i];
+        out[1] = pairs[2 * i + 1];
+    }
+
+    public void resolve(BodyStore bodies) {
+        broadPhase(bodies);
+
+        contacts = 0;
+        groundContacts = 0;
+        for (int pass = 0; pass < iterations; pass++) {
+            boolean first = pass == 0;
+            for (int p = 0; p < pairCount; p++) {
+                if (collide(bodies, pairs[2 * p], pairs[2 * p + 1]) && first) {
+                    contacts++;
+                }
+            }
+            for (int i = 0; i < bodies.size(); i++) {
+                if (ground(bodies, i) && first) {
+                    groundContacts++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the pair buffer with every pair of bodies whose bounding boxes overlap.
+     */
+    void broadPhase(BodyStore bodies) {
+        int n = bodies.size();
+        if (order.length < n) {
+            order = Arrays.copyOf(order, bodies.x.length);
+            scratch = new int[bodies.x.length];
+            minX = new double[bodies.x.length];
+        }
+        if (sorted > n) {
+            sorted = 0;
+        }
+        for (int i = sorted; i < n; i++) {
+            order[i] = i;
+        }
+        sorted = n;
+
+        double[] x = bodies.x;
+        double[] r = bodies.radius;
+        for (int i = 0; i < n; i++) {
+            minX[i] = x[i] - r[i];
+        }
+        if (!insertionSort(n, 2L * n + 64)) {
+            mergeSort(0, n);
+        }
+
+        double[] y = bodies.y;
+        pairCount = 0;
+        for (int k = 0; k < n; k++) {
+            int a = order[k];
+            double maxX = x[a] + r[a];
+            for (int m = k + 1; (m < n) && (minX[order[m]] <= maxX); m++) {
+                int b = order[m];
+                if (Math.abs(y[a] - y[b]) <= r[a] + r[b]) {
+                    addPair(a, b);
+                }
+            }
+        }
+    }
+
+    private void addPair(int a, int b) {
+        if (2 * pairCount + 2 > pairs.length) {
+            pairs = Arrays.copyOf(pairs, pairs.length * 2);
+        }
+        pairs[2 * pairCount] = a;
+        pairs[2 * pairCount + 1] = b;
+        pairCount++;
+    }
+
+    /**
+     * Sorts order by minX in place; gives up, leaving order a valid permutation, once it has
+     * made more than budget moves.
+     */
+    private boolean insertionSort(int n, long budget) {
+        long moves = 0;
+        for (int i = 1; i < n; i++) {
+            int v = order[i];
+            double key = minX[v];
+            int j = i - 1;
+            while ((j >= 0) && (minX[order[j]] > key)) {
+                order[j + 1] = order[j];
+                j--;
+                if (++moves > budget) {
+                    order[j + 1] = v;
+                    return false;
+                }
+            }
+            order[j + 1] = v;
+        }
+        return true;
+    }
+
+    private void mergeSort(int from, int to) {
+        if (to - from <= 16) {
+            for (int i = from + 1; i < to; i++) {
+                int v = order[i];
+                int j = i - 1;
+                while ((j >= from) && (minX[order[j]] > minX[v])) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = v;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(from, mid);
+        mergeSort(mid, to);
+        if (minX[order[mid - 1]] <= minX[order[mid]]) {
+            return;
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            if ((j >= to) || ((i < mid) && (minX[scratch[i]] <= minX[scratch[j]]))) {
+                order[k] = scratch[i++];
+            } else {
+                order[k] = scratch[j++];
+            }
+        }
+    }
+
+    private boolean collide(BodyStore s, int a, int b) {
+        double dx = s.x[b] - s.x[a];
+        double dy = s.y[b] - s.y[a];
+        double reach = s.radius[a] + s.radius[b];
+        double d2 = dx * dx + dy * dy;
+        if (d2 >= reach * reach) {
+            return false;
+        }
+
+        double ima = inverseMass(s.mass[a]);
+        double imb = inverseMass(s.mass[b]);
+        double im = ima + imb;
+        if (im == 0) {
+            return true;
+        }
+
+        // Normal from a to b; bodies exactly on top of each other are separated vertically
+        double d = Math.sqrt(d2);
+        double nx = (d > 0) ? dx / d : 0;
+        double ny = (d > 0) ? dy / d : 1;
+
+        double push = (reach - d) * correction / im;
+        s.x[a] -= push * ima * nx;
+        s.y[a] -= push * ima * ny;
+        s.x[b] += push * imb * nx;
+        s.y[b] += push * imb * ny;
+
+        double closing = (s.vx[b] - s.vx[a]) * nx + (s.vy[b] - s.vy[a]) * ny;
+        if (closing < 0) {
+            double j = -(1 + restitution) * closing / im;
+            s.vx[a] -= j * ima * nx;
+            s.vy[a] -= j * ima * ny;
+            s.vx[b] += j * imb * nx;
+            s.vy[b] += j * imb * ny;
+        }
+        return true;
+    }
+
+    private boolean ground(BodyStore s, int i) {
+        double floor = groundY + s.radius[i];
+        if (s.y[i] >= floor) {
+            return false;
+        }
+        s.y[i] = floor;
+        if (s.vy[i] < 0) {
+            s.vy[i] = -s.vy[i] * restitution;
+        }
+        return true;
+    }
+
+    // Massless bodies are treated as immovable
+    private static double inverseMass(double m) {
+        return (m > 0) ? 1 / m : 0;
+    }
+}
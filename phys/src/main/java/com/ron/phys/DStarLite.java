@@ -0,0 +1,459 @@
+package com.ron.phys;
+
+import java.util.Arrays;
+
+/**
+ * Incremental shortest paths to one goal on a changing Terrain (Koenig and Likhachev's
+ * D* Lite). The search runs backwards from the goal, so as the walker moves and cells change
+ * only the part of the search those changes touch is redone. Costs and neighbours are the
+ * same as AStar's: eight-way moves into passable cells.
+ *
+ * Steps are canonical: of the neighbours on a cheapest path, the first in AStar's direction
+ * order. So a planner hands out exactly the steps a FlowFieldService field does, whatever
+ * searches it has run before.
+ *
+ * g and rhs are kept sparsely, so a planner only costs memory for the cells it has looked
+ * at. Changes are read from the Terrain's change log; if more have piled up than the log
+ * holds, the planner starts over.
+ */
+public class DStarLite {
+    public static final int NO_PATH = -1;
+
+    private static final int INF = Integer.MAX_VALUE;
+    private static final long NO_KEY = Long.MAX_VALUE;
+
+    // Same order as AStar
+    private static final int[] DX = {1, 1, 1, 0, 0, -1, -1, -1};
+    private static final int[] DY = {-1, 0, 1, -1, 1, -1, 0, 1};
+
+    private final Terrain terrain;
+    private final int width;
+    private final int height;
+    private final int goal;
+
+    private final LongIntHashMap g = new LongIntHashMap();
+    private final LongIntHashMap rhs = new LongIntHashMap();
+    private final Queue open = new Queue();
+
+    private int start = NO_PATH;
+    private int last;           // start when km was last brought up to date
+    private int km;
+    private int seenMod;        // terrain changes up to here are applied
+    private long expanded;
+
+    public DStarLite(Terrain terrain, int goalX, int goalY) {
+        this.terrain = terrain;
+        this.width = terrain.getWidth();
+        this.height = terrain.getHeight();
+        this.goal = goalY * width + goalX;
+    }
+
+    /**
+     * The cell (y * width + x) to step to from (x, y) on a cheapest path to the goal, the
+     * goal itself if already there, or NO_PATH if the goal cannot be reached.
+     */
+    public int next(int x, int y) {
+        int cell = y * width + x;
+        if (cell == goal) {
+            return goal;
+        }
+        update(cell);
+        if (g(start) == INF) {
+            return NO_PATH;
+        }
+
+        int target = g(start);
+        int best = NO_PATH;
+        int bestCost = INF;
+        for (int d = 0; d < DX.length; d++) {
+            int nx = x + DX[d];
+            int ny = y + DY[d];
+            if (!terrain.isPassable(nx, ny)) {
+                continue;
+            }
+            int n = ny * width + nx;
+            int cost = add(stepG(n, target), edgeCost(start, n));
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = n;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Writes up to max cells of a cheapest path from (x, y) into out, starting at off, and
+     * returns how many it wrote. Follows the costs the last next() left behind without
+     * searching any further, so it is cheap and leaves the planner as it was, for showing the
+     * route. (x, y) should be on the path next() last handed out; 0 is returned if the
+     * terrain has changed since, or if the costs there are not known.
+     */
+    public int trace(int x, int y, int[] out, int off, int max) {
+        if ((start == NO_PATH) || (seenMod != terrain.getModCount())) {
+            return 0;
+        }
+        int cell = y * width + x;
+        int n = 0;
+        while ((n < max) && (cell != goal)) {
+            int cx = cell % width;
+            int cy = cell / width;
+            int best = NO_PATH;
+            int bestCost = INF;
+            for (int d = 0; d < DX.length; d++) {
+                int nx = cx + DX[d];
+                int ny = cy + DY[d];
+                if (!terrain.isPassable(nx, ny)) {
+                    continue;
+                }
+                int next = ny * width + nx;
+                int cost = add(g(next), edgeCost(cell, next));
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = next;
+                }
+            }
+            // Costs must fall all the way to the goal; anything else is search not yet done
+            if ((best == NO_PATH) || (g(best) >= g(cell))) {
+                break;
+            }
+            out[off + n++] = best;
+            cell = best;
+        }
+        return n;
+    }
+
+    /**
+     * Cost of the cheapest path from (x, y) to the goal, in AStar's units, or -1 if there is
+     * none.
+     */
+    public int pathCost(int x, int y) {
+        int cell = y * width + x;
+        if (cell == goal) {
+            return 0;
+        }
+        update(cell);
+        return (g(start) == INF) ? -1 : g(start);
+    }
+
+    /**
+     * Nodes expanded since this planner was made; for measuring how much replanning costs.
+     */
+    public long getExpanded() {
+        return expanded;
+    }
+
+    /**
+     * Cells this planner holds state for.
+     */
+    public int getStateSize() {
+        return Math.max(g.size(), rhs.size());
+    }
+
+    private void update(int cell) {
+        int mod = terrain.getModCount();
+        if ((start == NO_PATH) || (mod - seenMod > Terrain.CHANGE_LOG_SIZE)) {
+            reset(cell, mod);
+        } else {
+            // Queued keys were made against the old start; km keeps them lower bounds
+            start = cell;
+            km += h(last, start);
+            last = start;
+            for (int m = seenMod; m < mod; m++) {
+                cellChanged(terrain.getChangedCell(m));
+            }
+            seenMod = mod;
+        }
+        settle(start);
+    }
+
+    private void reset(int cell, int mod) {
+        g.clear();
+        rhs.clear();
+        open.clear();
+        km = 0;
+        start = cell;
+        last = cell;
+        seenMod = mod;
+        rhs.put(goal, 0);
+        open.insert(goal, key(goal));
+    }
+
+    // Entering cell costs changed, so every neighbour's best way out may have too
+    private void cellChanged(int cell) {
+        int cx = cell % width;
+        int cy = cell / width;
+        for (int d = 0; d < DX.length; d++) {
+            int nx = cx + DX[d];
+            int ny = cy + DY[d];
+            if (inBounds(nx, ny)) {
+                int n = ny * width + nx;
+                if (n != goal) {
+                    setRhs(n, bestRhs(n));
+                }
+                updateVertex(n);
+            }
+        }
+    }
+
+    // Expands cells until g(s) is s's true cost to the goal
+    private void settle(int s) {
+        while (!open.isEmpty() && ((open.topKey() < key(s)) || (rhs(s) != g(s)))) {
+            expandTop();
+        }
+    }
+
+    /**
+     * g(n) for a neighbour of start, exact if n might be the next step on a path costing
+     * target, and otherwise at least too big for that. The tie-break only comes out the same
+     * whatever was searched before if every candidate's g is exact.
+     */
+    private int stepG(int n, int target) {
+        // Once the smallest queued key is past target, any g still to change, and any g built
+        // on one, plus the step from start exceeds target: unsettled cells can't tie
+        while (!open.isEmpty() && ((open.topKey() >>> 32) - km <= target)
+                && ((open.topKey() < key(n)) || (rhs(n) != g(n)))) {
+            expandTop();
+        }
+        return g(n);
+    }
+
+    private void expandTop() {
+        int u = open.top();
+        long oldKey = open.topKey();
+        long newKey = key(u);
+        expanded++;
+        if (oldKey < newKey) {
+            open.update(u, newKey);
+        } else if (g(u) > rhs(u)) {
+            int gu = rhs(u);
+            setG(u, gu);
+            open.remove(u);
+            int ux = u % width;
+            int uy = u / width;
+            for (int d = 0; d < DX.length; d++) {
+                int sx = ux + DX[d];
+                int sy = uy + DY[d];
+                if (!inBounds(sx, sy)) {
+                    continue;
+                }
+                int s = sy * width + sx;
+                if (s != goal) {
+                    int through = add(gu, edgeCost(s, u));
+                    if (through < rhs(s)) {
+                        setRhs(s, through);
+                    }
+                }
+                updateVertex(s);
+            }
+        } else {
+            int oldG = g(u);
+            setG(u, INF);
+            int ux = u % width;
+            int uy = u / width;
+            for (int d = -1; d < DX.length; d++) {
+                int s = u;
+                if (d >= 0) {
+                    int sx = ux + DX[d];
+                    int sy = uy + DY[d];
+                    if (!inBounds(sx, sy)) {
+                        continue;
+                    }
+                    s = sy * width + sx;
+                }
+                if ((s != goal) && ((s == u) || (rhs(s) == add(oldG, edgeCost(s, u))))) {
+                    setRhs(s, bestRhs(s));
+                }
+                updateVertex(s);
+            }
+        }
+    }
+
+    private void updateVertex(int u) {
+        boolean consistent = g(u) == rhs(u);
+        if (!consistent) {
+            if (open.contains(u)) {
+                open.update(u, key(u));
+            } else {
+                open.insert(u, key(u));
+            }
+        } else if (open.contains(u)) {
+            open.remove(u);
+        }
+    }
+
+    private int bestRhs(int s) {
+        int sx = s % width;
+        int sy = s / width;
+        int best = INF;
+        for (int d = 0; d < DX.length; d++) {
+            int nx = sx + DX[d];
+            int ny = sy + DY[d];
+            if (inBounds(nx, ny)) {
+                int n = ny * width + nx;
+                best = Math.min(best, add(g(n), edgeCost(s, n)));
+            }
+        }
+        return best;
+    }
+
+    // Primary key in the high half, tie-break in the low half; both fit in 31 bits
+    private long key(int s) {
+        int m = Math.min(g(s), rhs(s));
+        if (m == INF) {
+            return NO_KEY;
+        }
+        return ((long) (m + h(start, s) + km) << 32) | m;
+    }
+
+    private int h(int a, int b) {
+        return AStar.octile(b % width - a % width, b / width - a / width);
+    }
+
+    // Cost of stepping from a into the neighbouring cell b
+    private int edgeCost(int a, int b) {
+        if (!terrain.isPassable(b % width, b / width)) {
+            return INF;
+        }
+        return AStar.stepCost(b % width - a % width, b / width - a / width);
+    }
+
+    private int g(int s) {
+        return g.get(s, INF);
+    }
+
+    private int rhs(int s) {
+        return rhs.get(s, INF);
+    }
+
+    private void setG(int s, int value) {
+        if (value == INF) {
+            g.remove(s);
+        } else {
+            g.put(s, value);
+        }
+    }
+
+    private void setRhs(int s, int value) {
+        if (value == INF) {
+            rhs.remove(s);
+        } else {
+            rhs.put(s, value);
+        }
+    }
+
+    private boolean inBounds(int x, int y) {
+        return (x >= 0) && (y >= 0) && (x < width) && (y < height);
+    }
+
+    private static int add(int a, int b) {
+        return ((a == INF) || (b == INF)) ? INF : a + b;
+    }
+
+    /**
+     * Binary min-heap of cells by long key, with a sparse cell -> slot map so it can update
+     * and remove arbitrary cells.
+     */
+    private static final class Queue {
+        private int[] cells = new int[16];
+        private long[] keys = new long[16];
+        private final LongIntHashMap slots = new LongIntHashMap();
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        boolean contains(int cell) {
+            return slots.containsKey(cell);
+        }
+
+        int top() {
+            return cells[0];
+        }
+
+        long topKey() {
+            return (size == 0) ? NO_KEY : keys[0];
+        }
+
+        void clear() {
+            slots.clear();
+            size = 0;
+        }
+
+        void insert(int cell, long key) {
+            if (size == cells.length) {
+                cells = Arrays.copyOf(cells, 2 * size);
+                keys = Arrays.copyOf(keys, 2 * size);
+            }
+            place(size, cell, key);
+            size++;
+            siftUp(size - 1);
+        }
+
+        void update(int cell, long key) {
+            int i = slots.get(cell, -1);
+            long old = keys[i];
+            keys[i] = key;
+            if (key < old) {
+                siftUp(i);
+            } else {
+                siftDown(i);
+            }
+        }
+
+        void remove(int cell) {
+            int i = slots.get(cell, -1);
+            slots.remove(cell);
+            size--;
+            if (i != size) {
+                long old = keys[i];
+                place(i, cells[size], keys[size]);
+                if (keys[i] < old) {
+                    siftUp(i);
+                } else {
+                    siftDown(i);
+                }
+            }
+        }
+
+        private void siftUp(int i) {
+            int cell = cells[i];
+            long key = keys[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                place(i, cells[parent], keys[parent]);
+                i = parent;
+            }
+            place(i, cell, key);
+        }
+
+        private void siftDown(int i) {
+            int cell = cells[i];
+            long key = keys[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if ((child + 1 < size) && (keys[child + 1] < keys[child])) {
+                    child++;
+                }
+                if (keys[child] >= key) {
+                    break;
+                }
+                place(i, cells[child], keys[child]);
+                i = child;
+            }
+            place(i, cell, key);
+        }
+
+        private void place(int i, int cell, long key) {
+            cells[i] = cell;
+            keys[i] = key;
+            slots.put(cell, i);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.ron.phys;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -9,8 +10,8 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Logger;
 
 import javax.swing.SwingUtilities;
@@ -23,6 +24,10 @@ interface JobObserver {
     void completed(Actor completingActor);
 }
 
+interface TerrainListener {
+    void cellChanged(int x, int y);
+}
+
 class Loc {
     public static Loc START = new Loc(1, 1);
     private int x;
@@ -53,6 +58,29 @@ class Loc {
         return new Loc(dx + this.x, dy + this.y);
     }
 
+    /**
+     * Packs a coordinate pair into one long, for use as a primitive map key on hot paths.
+     */
+    public static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    public static int unpackX(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    public static int unpackY(long packed) {
+        return (int) packed;
+    }
+
+    public static Loc unpack(long packed) {
+        return new Loc(unpackX(packed), unpackY(packed));
+    }
+
+    public long pack() {
+        return pack(x, y);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -63,7 +91,7 @@ class Loc {
 
     @Override
     public int hashCode() {
-        return Objects.hash(x, y);
+        return 31 * x + y;
     }
 
     @Override
@@ -76,26 +104,72 @@ class Loc {
 }
 
 class Actor {
-    private Loc loc;
+    private int x;
+    private int y;
+    private Loc loc;    // x and y as a Loc, made on demand for callers outside the hot path
     private Job currentJob;
     private String name;
+    private World world;
+    private int id = -1;    // index in the World's actor list
 
     public Actor(String name, Loc loc) {
         this.name = name;
         this.currentJob = null;
         if (loc == null) {
-            this.loc = Loc.START;
-        } else {
-            this.loc = loc;
+            loc = Loc.START;
         }
+        this.x = loc.getX();
+        this.y = loc.getY();
     }
 
     public Loc getLoc() {
+        if (loc == null) {
+            loc = new Loc(x, y);
+        }
         return loc;
     }
 
     public Loc setLoc(Loc loc) {
-        return (this.loc = loc);
+        moveTo(loc.getX(), loc.getY());
+        return getLoc();
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public long getPackedLoc() {
+        return Loc.pack(x, y);
+    }
+
+    public void moveTo(int x, int y) {
+        if ((x == this.x) && (y == this.y)) {
+            return;
+        }
+        long from = Loc.pack(this.x, this.y);
+        this.x = x;
+        this.y = y;
+        this.loc = null;
+        if (world != null) {
+            world.actorMoved(this, from);
+        }
+    }
+
+    World getWorld() {
+        return world;
+    }
+
+    void setWorld(World world, int id) {
+        this.world = world;
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
     }
 
     public Job getCurrentJob() {
@@ -114,17 +188,29 @@ class Actor {
         this.name = name;
     }
 
-    void tick(World w) {
+    /**
+     * First tick phase: pick up work if idle. Touches shared World state, so runs serially.
+     */
+    void claimJob(World w) {
         if (currentJob == null) {
-            currentJob = w.assignJob();
+            currentJob = w.assignJob(this);
         }
+    }
 
-        if (currentJob != null) {
-            if (currentJob.tick(this)) {
-                w.jobCompleted(currentJob);
-                currentJob = null;
-            }
-        }
+    /**
+     * Second tick phase: advance the current job. Only touches this actor and its job, so
+     * actors can be updated in parallel. Returns true if the job finished.
+     */
+    boolean update() {
+        return (currentJob != null) && currentJob.tick(this);
+    }
+
+    /**
+     * Last tick phase: report a finished job back to the World. Runs serially, in actor order.
+     */
+    void finishJob(World w) {
+        w.jobCompleted(currentJob);
+        currentJob = null;
     }
 
     void completeJob() {
@@ -134,34 +220,146 @@ class Actor {
     @Override
     public String toString() {
         return "Actor{" + name + ": " +
-                loc +
+                getLoc() +
                 ", currentJob=" + currentJob +
                 '}';
     }
 }
 
 abstract class Job {
+    static final byte NEW = 0;
+    static final byte PENDING = 1;
+    static final byte ACTIVE = 2;
+    static final byte DONE = 3;
+
+    private int priority;
+
+    // Bookkeeping for JobScheduler
+    long seq;
+    byte state = NEW;
+    int bucketIndex;    // position within its destination bucket while pending
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Higher priorities are handed out first. Must be set before the job is added to a World.
+     */
+    public void setPriority(int priority) {
+        if (state != NEW) {
+            throw new IllegalStateException("Job already scheduled: " + this);
+        }
+        this.priority = priority;
+    }
+
     abstract boolean tick(Actor a);
 }
 
 class MoveToJob extends Job {
-    private Loc loc;
+    private final int destX;
+    private final int destY;
+    private final Loc loc;
+    private DStarLite planner;  // made on the first tick in a World, dropped when done
+    private FlowFieldService.FlowField field;  // shared with other jobs to here; null if none
+    private long searchCells;   // what this job's own search would cover, as told to the field
 
     public MoveToJob(int x, int y) {
+        this.destX = x;
+        this.destY = y;
         this.loc = new Loc(x, y);
     }
 
+    /**
+     * Takes one step along a cheapest path to the destination. While the shared flow field
+     * for the destination is current the step is read from it; otherwise this job's own
+     * planner finds it, replanning incrementally as the terrain changes. Both give the same
+     * step. A destination that cannot be reached ends the job where the actor stands. Outside
+     * a World there is no terrain, so the actor heads straight there.
+     */
     public boolean tick(Actor a) {
-        Loc s = a.getLoc();
+        World w = a.getWorld();
+        if (w == null) {
+            int x = a.getX() + Integer.signum(destX - a.getX());
+            int y = a.getY() + Integer.signum(destY - a.getY());
+            a.moveTo(x, y);
+            return (x == destX) && (y == destY);
+        }
 
-        int dx = (int) Math.signum(loc.getX() - s.getX());
-        int dy = (int) Math.signum(loc.getY() - s.getY());
+        int next = DStarLite.NO_PATH;
+        if ((field != null) && field.isCurrent()) {
+            next = field.nextCell(a.getX(), a.getY());
+        }
+        if (next == DStarLite.NO_PATH) {
+            // No field, a stale one, or a cell it cannot route from, such as impassable ground
+            if (planner == null) {
+                planner = new DStarLite(w.getTerrain(), destX, destY);
+            }
+            next = planner.next(a.getX(), a.getY());
+        }
+        if (next != DStarLite.NO_PATH) {
+            int width = w.getTerrain().getWidth();
+            a.moveTo(next % width, next / width);
+        }
+        boolean done = (next == DStarLite.NO_PATH) || ((a.getX() == destX) && (a.getY() == destY));
+        if (done) {
+            planner = null;
+        }
+        return done;
+    }
+
+    /**
+     * Writes up to max cells of the route the actor is following into out, starting at off,
+     * and returns how many it wrote. The route is read from whatever hands out the actor's
+     * steps, the shared field or this job's planner, without searching; it is empty until the
+     * job has taken its first step, and for a frame after the terrain changes.
+     */
+    int route(Actor a, int[] out, int off, int max) {
+        if ((field != null) && field.isCurrent() && (field.nextCell(a.getX(), a.getY()) != DStarLite.NO_PATH)) {
+            int width = a.getWorld().getTerrain().getWidth();
+            int cell = a.getY() * width + a.getX();
+            int n = 0;
+            while (n < max) {
+                int next = field.nextCell(cell % width, cell / width);
+                if ((next == DStarLite.NO_PATH) || (next == cell)) {
+                    break;
+                }
+                out[off + n++] = next;
+                cell = next;
+            }
+            return n;
+        }
+        return (planner == null) ? 0 : planner.trace(a.getX(), a.getY(), out, off, max);
+    }
+
+    /**
+     * Joins the flow field for this destination. Once the jobs sharing it would search more
+     * between them than one field build costs, the field is built here, in the serial claim
+     * phase, and serves every actor heading there.
+     */
+    void shareField(FlowFieldService flowFields, Actor a) {
+        int d = Math.max(Math.abs(destX - a.getX()), Math.abs(destY - a.getY()));
+        // Roughly what a search out to distance d covers
+        searchCells = (long) d * d;
+        field = flowFields.acquire(loc, searchCells);
+        if (flowFields.isWorthBuilding(field)) {
+            flowFields.prepare(field);
+        }
+    }
 
-        a.setLoc(s.offset(dx, dy));
+    void releaseField(FlowFieldService flowFields) {
+        if (field != null) {
+            flowFields.release(field, searchCells);
+            field = null;
+        }
+    }
 
-        boolean e = (a.getLoc().equals(this.loc));
+    public int getDestX() {
+        return destX;
+    }
 
-        return (a.getLoc().equals(this.loc));
+    public int getDestY() {
+        return destY;
     }
 
     @Override
@@ -177,109 +375,454 @@ class MoveToJob extends Job {
 }
 
 class Terrain {
+    static final int CHANGE_LOG_SIZE = 4096;
+
     private final Random r;
-    private SQ[] sq;
+    private TerrainStorage storage;
     private int dimX;
     private int dimY;
+    private int modCount;
+    private TerrainGenerator generator;     // null unless generated by chunk
+    private List<TerrainListener> listeners = new ArrayList<TerrainListener>();
+    private final int[] changeLog = new int[CHANGE_LOG_SIZE];   // cell changed by each of the last modCounts
+    private long changeHash;    // XOR of cellHash(cell, code) for each cell's first and current code
 
     public Terrain(Random r, int dimX, int dimY) {
         this.dimX = dimX;
         this.dimY = dimY;
-        this.sq = new SQ[dimX * dimY];
+        this.storage = new TerrainStorage(dimX, dimY, SQ.EMPTY.getCode());
         this.r = r;
 
-        for (int x = 0; x < dimX; x++) {
-            for (int y = 0; y < dimY; y++) {
-                sq[ind(x, y)] = SQ.EMPTY;
-            }
-        }
-
         for (int i = 0; i < dimX; i++) {
-            sq[ind(i, 0)] = SQ.INDESTRUCTABLE;
-            sq[ind(i, dimY - 1)] = SQ.INDESTRUCTABLE;
+            storage.set(i, 0, SQ.INDESTRUCTABLE.getCode());
+            storage.set(i, dimY - 1, SQ.INDESTRUCTABLE.getCode());
         }
 
         for (int i = 0; i < dimY; i++) {
-            sq[ind(0, i)] = SQ.INDESTRUCTABLE;
-            sq[ind(dimX - 1, i)] = SQ.INDESTRUCTABLE;
+            storage.set(0, i, SQ.INDESTRUCTABLE.getCode());
+            storage.set(dimX - 1, i, SQ.INDESTRUCTABLE.getCode());
         }
 
         plantTrees();
     }
 
+    /**
+     * Terrain from a TerrainGenerator. Chunks are generated the first time they are read, so
+     * this returns at once however big the map; pregenerate() fills them all in parallel.
+     */
+    Terrain(Random r, long seed, int dimX, int dimY) {
+        this(r, new TerrainStorage(dimX, dimY, SQ.EMPTY.getCode()));
+        this.generator = new TerrainGenerator(seed, dimX, dimY);
+        generator.install(storage);
+    }
+
+    /**
+     * Terrain over existing cells, e.g. from a snapshot; nothing is generated.
+     */
+    Terrain(Random r, TerrainStorage storage) {
+        this.r = r;
+        this.storage = storage;
+        this.dimX = storage.getWidth();
+        this.dimY = storage.getHeight();
+    }
+
     public int[] getBounds() {
         return new int[]{dimX, dimY};
     }
 
+    public int getWidth() {
+        return dimX;
+    }
+
+    public int getHeight() {
+        return dimY;
+    }
+
     public SQ get(int x, int y) {
-        return sq[ind(x, y)];
+        return SQ.fromCode(storage.get(x, y));
+    }
+
+    public int getCode(int x, int y) {
+        return storage.get(x, y);
+    }
+
+    /**
+     * Copies the cell codes of row y, from x0 up to but not including x1, into codes.
+     */
+    public void readRow(int y, int x0, int x1, byte[] codes) {
+        storage.readRow(y, x0, x1, codes);
+    }
+
+    public boolean isPassable(int x, int y) {
+        return (x >= 0) && (y >= 0) && (x < dimX) && (y < dimY) && SQ.isPassable(storage.get(x, y));
+    }
+
+    public void set(int x, int y, SQ value) {
+        int old = storage.get(x, y);
+        if (old != value.getCode()) {
+            int cell = y * dimX + x;
+            changeHash ^= cellHash(cell, old) ^ cellHash(cell, value.getCode());
+            storage.set(x, y, value.getCode());
+            changeLog[modCount & (CHANGE_LOG_SIZE - 1)] = cell;
+            modCount++;
+            for (TerrainListener l : listeners) {
+                l.cellChanged(x, y);
+            }
+        }
+    }
+
+    /**
+     * Hash of the terrain as the generator seed plus every cell set() has left different
+     * from how it started. Kept up to date by set(), so reading it never generates a chunk.
+     * Terrain that was not generated by chunk hashes as seed 0, so only compare it between
+     * runs that started from the same cells.
+     */
+    long contentHash() {
+        long seed = (generator == null) ? 0 : generator.getSeed();
+        return TerrainGenerator.mix(seed) ^ changeHash;
+    }
+
+    private static long cellHash(int cell, int code) {
+        return TerrainGenerator.mix(0x9E3779B97F4A7C15L * ((((long) cell << 4) | code) + 1));
+    }
+
+    public void addListener(TerrainListener l) {
+        listeners.add(l);
+    }
+
+    public void removeListener(TerrainListener l) {
+        listeners.remove(l);
+    }
+
+    /**
+     * Incremented on every change made through set(), so derived data such as cached paths
+     * can tell whether it is stale.
+     */
+    public int getModCount() {
+        return modCount;
+    }
+
+    /**
+     * The cell (y * width + x) changed when modCount went from mod to mod + 1. Only the last
+     * CHANGE_LOG_SIZE changes are kept.
+     */
+    int getChangedCell(int mod) {
+        return changeLog[mod & (CHANGE_LOG_SIZE - 1)];
+    }
+
+    TerrainStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Generates every chunk not yet touched, in parallel. Does nothing unless this Terrain
+     * came from a TerrainGenerator.
+     */
+    public void pregenerate() {
+        if (generator != null) {
+            generator.pregenerate(storage);
+        }
     }
 
     private void plantTrees() {
+        int empty = SQ.EMPTY.getCode();
+        int tree = SQ.TREE.getCode();
         for (int x = 0; x < dimX; x++) {
             for (int y = 0; y < dimY; y++) {
-                if (sq[ind(x, y)] == SQ.EMPTY) {
+                if (storage.get(x, y) == empty) {
                     if (r.nextInt(100) < 20) {
-                        sq[ind(x, y)] = SQ.TREE;
+                        storage.set(x, y, tree);
                     }
                 }
             }
         }
     }
 
-    private int ind(int x, int y) {
-        return y * dimX + x;
-    }
-
     enum SQ {
-        EMPTY(0),
-        INDESTRUCTABLE(1),
-        DIRT(2),
-        WATER(3),
-        ROCK(4),
-        TREE(5),
+        EMPTY(0, true),
+        INDESTRUCTABLE(1, false),
+        DIRT(2, true),
+        WATER(3, false),
+        ROCK(4, false),
+        TREE(5, true),
         ;
 
         private static final List<SQ> VALUES = unmodifiableList(Arrays.asList(values()));
         private static final int SIZE = VALUES.size();
+        private static final SQ[] BY_CODE = new SQ[TerrainStorage.MAX_CODE + 1];
+        private static final boolean[] PASSABLE = new boolean[TerrainStorage.MAX_CODE + 1];
         private static final Random RANDOM = new Random();
         private final int code;
+        private final boolean passable;
 
-        SQ(int code) {
+        SQ(int code, boolean passable) {
             this.code = code;
+            this.passable = passable;
+        }
+
+        static {
+            for (SQ sq : values()) {
+                BY_CODE[sq.code] = sq;
+                PASSABLE[sq.code] = sq.passable;
+            }
+        }
+
+        public static SQ fromCode(int code) {
+            return BY_CODE[code];
+        }
+
+        public static boolean isPassable(int code) {
+            return PASSABLE[code];
         }
 
+        /**
+         * A random square from a shared unseeded generator; use randomSQ(Random) for runs
+         * that need to be reproducible.
+         */
         public static SQ randomSQ() {
-            return VALUES.get(RANDOM.nextInt(SIZE));
+            return randomSQ(RANDOM);
+        }
+
+        public static SQ randomSQ(Random r) {
+            return VALUES.get(r.nextInt(SIZE));
         }
 
         public int getCode() {
             return this.code;
         }
+
+        public boolean isPassable() {
+            return this.passable;
+        }
     }
 }
 
 class World {
+    // Below this many actors per task the fork-join split costs more than it saves
+    private static final int PARALLEL_THRESHOLD = 256;
+    private static final int ACTOR_CELL_SIZE = 16;
+
     private List<Actor> actors = new ArrayList<Actor>();
-    private List<Job> todoList = new ArrayList<Job>();
-    private List<Job> currentJobs = new ArrayList<Job>();
+    private JobScheduler jobs;
     private Terrain terrain;
-    private Random r = new Random();
+    private StateRandom r;
+    private PathCache pathCache;
+    private FlowFieldService flowFields;
+    private LongIntHashMap occupancy = new LongIntHashMap();  // packed Loc -> number of actors there
+    private SpatialIndex<Actor> actorIndex = new GridIndex<Actor>(ACTOR_CELL_SIZE);
+    private EventJournal journal = EventJournal.console();
+    private ReplayRecorder recorder;
+    private long tickCount;
+    private long initialState;      // random state before the terrain was generated
+    private boolean generated;      // false for worlds over existing terrain, which can't be replayed
+
+    // Actor positions as of the end of the previous tick, to merge moves into occupancy
+    private long[] previous = new long[0];
+    private boolean[] finished = new boolean[0];
+    private boolean updating;
+    private boolean parallelTick;
 
     public World(int width, int height) {
-        this.terrain = new Terrain(r, width, height);
+        this(width, height, new StateRandom());
     }
 
-    void jobCompleted(Job job) {
-        assert currentJobs.indexOf(job) >= 0;
+    public World(int width, int height, long seed) {
+        this(width, height, new StateRandom(seed));
+    }
 
-        System.out.println("Job complete " + job);
-        currentJobs.remove(job);
+    /**
+     * A World drawing all its randomness from r, starting with the terrain.
+     */
+    public World(int width, int height, StateRandom r) {
+        this(r, r.getState(), width, height);
     }
 
+    private World(StateRandom r, long initialState, int width, int height) {
+        this(r, new Terrain(r, r.nextLong(), width, height));
+        this.initialState = initialState;
+        this.generated = true;
+    }
+
+    /**
+     * World over existing terrain, with no actors or jobs; used when loading a snapshot.
+     */
+    World(StateRandom r, Terrain terrain) {
+        int width = terrain.getWidth();
+        int height = terrain.getHeight();
+        this.r = r;
+        this.terrain = terrain;
+        this.pathCache = new PathCache(terrain, PathCache.DEFAULT_CAPACITY);
+        this.flowFields = new FlowFieldService(terrain);
+        this.jobs = new JobScheduler(width, height);
+    }
+
+    void jobCompleted(Job job) {
+        assert jobs.isActive(job);
+        if (job instanceof MoveToJob) {
+            ((MoveToJob) job).releaseField(flowFields);
+        }
+
+        if (journal != null) {
+            long dest = (job instanceof MoveToJob) ? ((MoveToJob) job).getDest().pack() : EventJournal.NO_LOC;
+            journal.jobCompleted(job.seq, dest);
+        }
+        jobs.completed(job);
+    }
+
+    /**
+     * Advances every actor one step. Job claims happen first, serially in actor order; then
+     * every actor updates, in parallel if enabled; finally finished jobs and moves are merged
+     * back serially in actor order. Both modes run the same phases, so they produce identical
+     * results.
+     * <p>
+     * There is no separate buffer for next tick's positions: an updating actor moves itself in
+     * place. A Job's tick must therefore only read and write its own actor. To look at others,
+     * use actorsAt and actorsNear: they answer as of the start of the tick, because moves are
+     * only merged into them after every actor has updated. Reading another Actor's position
+     * directly, including one those queries return, races with that actor's own move and can
+     * make serial and parallel ticks disagree.
+     */
     void tick() {
-        for (Actor a : this.actors) {
-            a.tick(this);
+        boolean metrics = Metrics.isEnabled();
+        long started = metrics ? System.nanoTime() : 0;
+        int n = actors.size();
+        if (previous.length < n) {
+            previous = new long[n];
+            finished = new boolean[n];
+        }
+
+        for (int i = 0; i < n; i++) {
+            Actor a = actors.get(i);
+            a.claimJob(this);
+            previous[i] = a.getPackedLoc();
+        }
+        long claimed = metrics ? System.nanoTime() : 0;
+
+        updating = true;
+        try {
+            if (parallelTick && n > PARALLEL_THRESHOLD) {
+                Workers.pool().invoke(new ActorUpdate(actors, finished, 0, n));
+            } else {
+                ActorUpdate.update(actors, finished, 0, n);
+            }
+        } finally {
+            updating = false;
+        }
+        long updated = metrics ? System.nanoTime() : 0;
+
+        for (int i = 0; i < n; i++) {
+            Actor a = actors.get(i);
+            long now = a.getPackedLoc();
+            if (now != previous[i]) {
+                occupancy.add(previous[i], -1);
+                occupancy.add(now, 1);
+                actorIndex.put(a, a.getX(), a.getY());
+                if ((journal != null) && journal.isEnabled(EventJournal.Type.ACTOR_MOVED)) {
+                    journal.actorMoved(i, previous[i], now);
+                }
+            }
+            if (finished[i]) {
+                a.finishJob(this);
+            }
+        }
+
+        tickCount++;
+        if (recorder != null) {
+            recorder.ticked(this);
+        }
+        if (metrics) {
+            Metrics.recordTick(started, claimed, updated, System.nanoTime(), jobs.pendingSize(), jobs.activeSize());
+        }
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    long getInitialState() {
+        return initialState;
+    }
+
+    /**
+     * Starts recording this World's inputs for replay. Must be called before anything is
+     * added to it, and only on a World that generated its own terrain. Changes made directly
+     * to the Terrain are not recorded.
+     */
+    public void setRecorder(ReplayRecorder recorder) throws IOException {
+        if (!generated) {
+            throw new IllegalStateException("Only worlds that generated their terrain can be recorded");
+        }
+        if ((tickCount > 0) || !actors.isEmpty() || (jobListSize() > 0)) {
+            throw new IllegalStateException("Recording must start before any actors, jobs or ticks");
+        }
+        this.recorder = recorder;
+        if (recorder != null) {
+            recorder.worldCreated(terrain.getWidth(), terrain.getHeight(), initialState);
+        }
+    }
+
+    /**
+     * Hash of everything a tick depends on: actors, jobs, terrain and the random state.
+     * Two runs that agree on this are, for practical purposes, in the same state.
+     */
+    public long checksum() {
+        long h = 0xCBF29CE484222325L;
+        h = mix(h, tickCount);
+        h = mix(h, r.getState());
+        h = mix(h, actors.size());
+        for (Actor a : actors) {
+            h = mix(h, a.getPackedLoc());
+            h = mix(h, (a.getCurrentJob() == null) ? -1 : a.getCurrentJob().seq);
+        }
+        h = mix(h, jobs.pendingSize());
+        h = mix(h, jobs.activeSize());
+        h = mix(h, jobs.getNextSeq());
+
+        h = mix(h, terrain.getWidth());
+        h = mix(h, terrain.getHeight());
+        h = mix(h, terrain.contentHash());
+        return h;
+    }
+
+    private static long mix(long h, long v) {
+        return (h ^ v) * 0x100000001B3L;
+    }
+
+    public boolean isParallelTick() {
+        return parallelTick;
+    }
+
+    public void setParallelTick(boolean parallelTick) {
+        this.parallelTick = parallelTick;
+    }
+
+    private static class ActorUpdate extends RecursiveAction {
+        private final List<Actor> actors;
+        private final boolean[] finished;
+        private final int from;
+        private final int to;
+
+        ActorUpdate(List<Actor> actors, boolean[] finished, int from, int to) {
+            this.actors = actors;
+            this.finished = finished;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                update(actors, finished, from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ActorUpdate(actors, finished, from, mid), new ActorUpdate(actors, finished, mid, to));
+            }
+        }
+
+        static void update(List<Actor> actors, boolean[] finished, int from, int to) {
+            for (int i = from; i < to; i++) {
+                finished[i] = actors.get(i).update();
+            }
         }
     }
 
@@ -289,32 +832,97 @@ class World {
 
     public void addActor(Actor a) {
         actors.add(a);
+        a.setWorld(this, actors.size() - 1);
+        occupancy.add(a.getPackedLoc(), 1);
+        actorIndex.put(a, a.getX(), a.getY());
+        if (recorder != null) {
+            recorder.actorAdded(a);
+        }
+    }
+
+    void actorMoved(Actor a, long from) {
+        // Moves made while actors update are merged at the end of the tick
+        if (!updating) {
+            occupancy.add(from, -1);
+            occupancy.add(a.getPackedLoc(), 1);
+            actorIndex.put(a, a.getX(), a.getY());
+            if ((journal != null) && journal.isEnabled(EventJournal.Type.ACTOR_MOVED)) {
+                journal.actorMoved(a.getId(), from, a.getPackedLoc());
+            }
+        }
+    }
+
+    public int actorsAt(int x, int y) {
+        return occupancy.get(Loc.pack(x, y), 0);
+    }
+
+    /**
+     * Actors at most radius steps (in x and in y) away from center.
+     */
+    public List<Actor> actorsNear(Loc center, int radius) {
+        List<Actor> near = new ArrayList<Actor>();
+        actorIndex.range(center.getX() - radius, center.getY() - radius,
+                center.getX() + radius, center.getY() + radius, near);
+        return near;
+    }
+
+    public EventJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Where job completions and actor moves are recorded; null records nothing.
+     */
+    public void setJournal(EventJournal journal) {
+        this.journal = journal;
+    }
+
+    public SpatialIndex<Actor> getActorIndex() {
+        return actorIndex;
     }
 
     public void addJob(Job job) {
-        todoList.add(job);
+        jobs.add(job);
+        if (recorder != null) {
+            recorder.jobAdded(job);
+        }
     }
 
     public int jobListSize() {
-        return todoList.size() + currentJobs.size();
+        return jobs.pendingSize() + jobs.activeSize();
     }
 
-    public Job assignJob() {
-        if (this.todoList.size() == 0) {
-            return null;
-        } else {
-            Job job = this.todoList.remove(0);
-            currentJobs.add(job);
-            return job;
+    public Job assignJob(Actor a) {
+        Job job = jobs.assign(a);
+        if (job != null) {
+            jobClaimed(a, job);
+        }
+        return job;
+    }
+
+    /**
+     * Sets up a job that has just been handed to a, or restored as a's current job.
+     */
+    void jobClaimed(Actor a, Job job) {
+        if (job instanceof MoveToJob) {
+            ((MoveToJob) job).shareField(flowFields, a);
         }
     }
 
+    public JobScheduler getJobs() {
+        return jobs;
+    }
+
+    StateRandom getRandom() {
+        return r;
+    }
+
     @Override
     public String toString() {
         return "World{" +
                 "actors=" + actors +
-                ", todoList=" + todoList +
-                ", currentJobs=" + currentJobs +
+                ", todoList=" + jobs.pendingJobs() +
+                ", currentJobs=" + jobs.activeJobs() +
                 '}';
     }
 
@@ -322,6 +930,22 @@ class World {
         return new AStar(terrain);
     }
 
+    public JumpPointSearch getJumpPointSearch() {
+        return new JumpPointSearch(terrain);
+    }
+
+    public List<Loc> findPath(Loc start, Loc goal) {
+        return pathCache.get(start, goal);
+    }
+
+    public PathCache getPathCache() {
+        return pathCache;
+    }
+
+    public FlowFieldService getFlowFields() {
+        return flowFields;
+    }
+
     public List<Actor> getActors() {
         return this.actors;
     }
@@ -329,15 +953,16 @@ class World {
 
 class Dorf {
     public static void main(String[] args) {
+        final boolean live = Arrays.asList(args).contains("--live");
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
-                mainLoop();
+                mainLoop(live);
             }
         });
     }
 
-    private static void mainLoop() {
+    private static void mainLoop(boolean live) {
         World w = new World(20, 20);
 
         w.addActor(new Actor("Sally", new Loc(12, 15)));
@@ -346,6 +971,10 @@ class Dorf {
         w.addJob(new MoveToJob(4, 1));
 
         WorldViewer viewer = new WorldViewer(w, w.getTerrain(), w.getActors());
-        viewer.show();
+        if (live) {
+            viewer.showLive(new SimulationThread(w, 2), 30);
+        } else {
+            viewer.show();
+        }
     }
 }
\ No newline at end of file
@@ -2,8 +2,18 @@ package com.ron.phys;
 
 import org.junit.Test;
 
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 import static org.junit.Assert.*;
 
@@ -31,5 +41,1206 @@ public class DorfTest {
         assertEquals(2, star.solve(new Loc(1,1), new Loc(2,2)).size());
         assertEquals(5, star.solve(new Loc(1,1), new Loc(5,5)).size());
     }
-}
 
+    @Test
+    public void getPathLargeMap() {
+        Terrain t = new Terrain(new Random(), 64, 64);
+        AStar star = new AStar(t);
+
+        List<Loc> path = star.solve(new Loc(1, 1), new Loc(60, 30));
+        assertEquals(60, path.size());
+        assertEquals(new Loc(1, 1), path.get(0));
+        assertEquals(new Loc(60, 30), path.get(path.size() - 1));
+        for (int i = 1; i < path.size(); i++) {
+            Loc a = path.get(i - 1);
+            Loc b = path.get(i);
+            assertTrue(Math.max(Math.abs(a.getX() - b.getX()), Math.abs(a.getY() - b.getY())) == 1);
+        }
+
+        // The same instance can be reused for another search
+        assertEquals(5, star.solve(new Loc(1, 1), new Loc(5, 5)).size());
+    }
+
+    @Test
+    public void pathCache() {
+        Terrain t = new Terrain(new Random(), 20, 20);
+        PathCache cache = new PathCache(t, 2);
+
+        List<Loc> first = cache.get(new Loc(1, 1), new Loc(5, 5));
+        assertSame(first, cache.get(new Loc(1, 1), new Loc(5, 5)));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+
+        cache.get(new Loc(1, 1), new Loc(6, 6));
+        cache.get(new Loc(1, 1), new Loc(7, 7));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+
+        t.set(3, 3, Terrain.SQ.DIRT);
+        assertNotSame(first, cache.get(new Loc(1, 1), new Loc(5, 5)));
+        assertEquals(1, cache.getInvalidations());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void jumpPointSearchMatchesAStar() {
+        Random r = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            Terrain t = new Terrain(r, 48, 48);
+            for (int i = 0; i < 600; i++) {
+                t.set(1 + r.nextInt(46), 1 + r.nextInt(46), Terrain.SQ.ROCK);
+            }
+            AStar star = new AStar(t);
+            JumpPointSearch jps = new JumpPointSearch(t);
+
+            for (int i = 0; i < 20; i++) {
+                Loc start = new Loc(1 + r.nextInt(46), 1 + r.nextInt(46));
+                Loc end = new Loc(1 + r.nextInt(46), 1 + r.nextInt(46));
+                t.set(start.getX(), start.getY(), Terrain.SQ.EMPTY);
+                t.set(end.getX(), end.getY(), Terrain.SQ.EMPTY);
+
+                List<Loc> expected = star.solve(start, end);
+                List<Loc> actual = jps.solve(start, end);
+                if (expected == null) {
+                    assertNull(actual);
+                } else {
+                    assertEquals(pathCost(star, expected), pathCost(star, actual));
+                    assertEquals(start, actual.get(0));
+                    assertEquals(end, actual.get(actual.size() - 1));
+                }
+            }
+        }
+    }
+
+    private static int pathCost(AStar star, List<Loc> path) {
+        int cost = 0;
+        for (int i = 1; i < path.size(); i++) {
+            Loc a = path.get(i - 1);
+            Loc b = path.get(i);
+            assertTrue(Math.max(Math.abs(a.getX() - b.getX()), Math.abs(a.getY() - b.getY())) == 1);
+            cost += star.pathCost(a, b);
+        }
+        return cost;
+    }
+
+    @Test
+    public void hierarchicalPathfinder() {
+        Random r = new Random(7);
+        Terrain t = new Terrain(r, 64, 64);
+        for (int i = 0; i < 1200; i++) {
+            t.set(1 + r.nextInt(62), 1 + r.nextInt(62), Terrain.SQ.WATER);
+        }
+        AStar star = new AStar(t);
+        HierarchicalPathfinder hpa = new HierarchicalPathfinder(t, 8);
+
+        for (int i = 0; i < 50; i++) {
+            Loc start = new Loc(1 + r.nextInt(62), 1 + r.nextInt(62));
+            Loc end = new Loc(1 + r.nextInt(62), 1 + r.nextInt(62));
+            t.set(start.getX(), start.getY(), Terrain.SQ.EMPTY);
+            t.set(end.getX(), end.getY(), Terrain.SQ.EMPTY);
+
+            List<Loc> expected = star.solve(start, end);
+            List<Loc> actual = hpa.solve(start, end);
+            if (expected == null) {
+                assertNull(actual);
+            } else {
+                assertTrue(pathCost(star, actual) >= pathCost(star, expected));
+                assertEquals(end, actual.get(actual.size() - 1));
+            }
+        }
+
+        // An interior change only rebuilds its own cluster
+        int rebuilds = hpa.getRebuilds();
+        t.set(12, 12, t.get(12, 12) == Terrain.SQ.ROCK ? Terrain.SQ.EMPTY : Terrain.SQ.ROCK);
+        hpa.abstractPath(new Loc(1, 1), new Loc(1, 1));
+        assertEquals(rebuilds + 1, hpa.getRebuilds());
+
+        // Clear an L along row 2 and column 60 so (2, 2) is sure to reach (60, 60)
+        for (int i = 2; i <= 60; i++) {
+            t.set(i, 2, Terrain.SQ.EMPTY);
+            t.set(60, i, Terrain.SQ.EMPTY);
+        }
+        List<Loc> partial = hpa.solve(new Loc(2, 2), new Loc(60, 60), 1);
+        assertNotNull(partial);
+        assertEquals(hpa.abstractPath(new Loc(2, 2), new Loc(60, 60)).get(1), partial.get(partial.size() - 1));
+    }
+
+    @Test
+    public void flowFieldsMatchAStar() {
+        Random r = new Random(3);
+        Terrain t = new Terrain(r, 40, 40);
+        for (int i = 0; i < 300; i++) {
+            t.set(1 + r.nextInt(38), 1 + r.nextInt(38), Terrain.SQ.ROCK);
+        }
+        t.set(20, 20, Terrain.SQ.EMPTY);
+        AStar star = new AStar(t);
+        FlowFieldService service = new FlowFieldService(t);
+
+        FlowFieldService.FlowField field = service.acquire(new Loc(20, 20));
+        assertSame(field, service.acquire(new Loc(20, 20)));
+        assertEquals(1, service.size());
+
+        for (int i = 0; i < 50; i++) {
+            Loc start = new Loc(1 + r.nextInt(38), 1 + r.nextInt(38));
+            if (!t.isPassable(start.getX(), start.getY())) {
+                continue;
+            }
+            List<Loc> expected = star.solve(start, new Loc(20, 20));
+            if (expected == null) {
+                assertFalse(field.reachable(start.getX(), start.getY()));
+                continue;
+            }
+
+            List<Loc> followed = new ArrayList<>();
+            followed.add(start);
+            for (Loc l = field.next(start.getX(), start.getY()); l != null; l = field.next(l.getX(), l.getY())) {
+                followed.add(l);
+            }
+            assertEquals(new Loc(20, 20), followed.get(followed.size() - 1));
+            assertEquals(pathCost(star, expected), pathCost(star, followed));
+        }
+        assertEquals(1, service.getBuilds());
+
+        service.release(field);
+        assertEquals(1, service.size());
+        service.release(field);
+        assertEquals(0, service.size());
+        try {
+            service.release(field);
+            fail("released a field nobody holds");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void movesToOneDestinationShareOneFlowField() {
+        World w = new World(64, 64, 8);
+        w.setJournal(null);
+        Terrain t = w.getTerrain();
+        Loc dest = new Loc(32, 32);
+        t.set(32, 32, Terrain.SQ.EMPTY);
+
+        Random r = new Random(5);
+        AStar star = w.getAStar();
+        while (w.getActors().size() < 12) {
+            Loc start = new Loc(1 + r.nextInt(62), 1 + r.nextInt(62));
+            if (t.isPassable(start.getX(), start.getY()) && (star.solve(start, dest) != null)) {
+                w.addActor(new Actor("A" + w.getActors().size(), start));
+                w.addJob(new MoveToJob(dest.getX(), dest.getY()));
+            }
+        }
+
+        for (int i = 0; (i < 500) && (w.jobListSize() > 0); i++) {
+            w.tick();
+        }
+        assertEquals(0, w.jobListSize());
+        for (Actor a : w.getActors()) {
+            assertEquals(dest, a.getLoc());
+        }
+        // One search for all twelve, and nothing left held once they arrived
+        assertEquals(1, w.getFlowFields().getBuilds());
+        assertEquals(0, w.getFlowFields().size());
+    }
+
+    @Test
+    public void neighborsIntoBuffer() {
+        Terrain t = new Terrain(new Random(), 10, 10);
+        AStar star = new AStar(t);
+        int[] buffer = new int[8];
+
+        assertEquals(8, star.neighbors(5 * 10 + 5, buffer));
+        assertEquals(3, star.neighbors(0, buffer));
+        assertEquals(5, star.neighbors(1 * 10 + 0, buffer));
+        assertEquals(3, star.neighbors(9 * 10 + 9, buffer));
+
+        int count = star.neighbors(5 * 10 + 5, buffer);
+        List<Loc> expected = star.getNeighbors(new Loc(5, 5));
+        for (int i = 0; i < count; i++) {
+            assertEquals(expected.get(i), new Loc(buffer[i] % 10, buffer[i] / 10));
+        }
+    }
+
+    @Test
+    public void searchContextGenerations() {
+        SearchContext ctx = new SearchContext(4);
+        ctx.begin();
+        ctx.set(2, 7, 1);
+        assertEquals(7, ctx.gScore(2));
+        assertEquals(1, ctx.cameFrom(2));
+
+        ctx.begin();
+        assertFalse(ctx.seen(2));
+        assertEquals(SearchContext.UNSEEN, ctx.gScore(2));
+        assertEquals(SearchContext.NONE, ctx.cameFrom(2));
+    }
+
+    @Test
+    public void packedLocs() {
+        long p = Loc.pack(-3, 7);
+        assertEquals(-3, Loc.unpackX(p));
+        assertEquals(7, Loc.unpackY(p));
+        assertEquals(new Loc(-3, 7), Loc.unpack(p));
+
+        LongIntHashMap map = new LongIntHashMap(2);
+        for (int i = 0; i < 1000; i++) {
+            map.put(Loc.pack(i, -i), i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            assertTrue(map.remove(Loc.pack(i, -i)));
+        }
+        assertEquals(500, map.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals((i % 2 == 0) ? -1 : i, map.get(Loc.pack(i, -i), -1));
+        }
+    }
+
+    @Test
+    public void actorOccupancy() {
+        World w = new World(10, 10);
+        Actor a = new Actor("A", new Loc(2, 2));
+        w.addActor(a);
+        w.addActor(new Actor("B", new Loc(2, 2)));
+        assertEquals(2, w.actorsAt(2, 2));
+
+        w.addJob(new MoveToJob(4, 2));
+        w.tick();
+        assertEquals(new Loc(3, 2), a.getLoc());
+        assertEquals(1, w.actorsAt(2, 2));
+        assertEquals(1, w.actorsAt(3, 2));
+    }
+
+    @Test
+    public void terrainStorage() {
+        TerrainStorage storage = new TerrainStorage(200, 130, Terrain.SQ.EMPTY.getCode());
+        assertEquals(0, storage.dataBytes());
+
+        storage.set(70, 65, Terrain.SQ.WATER.getCode());
+        storage.set(71, 65, Terrain.SQ.TREE.getCode());
+        assertEquals(Terrain.SQ.WATER.getCode(), storage.get(70, 65));
+        assertEquals(Terrain.SQ.TREE.getCode(), storage.get(71, 65));
+        assertEquals(Terrain.SQ.EMPTY.getCode(), storage.get(72, 65));
+        assertEquals(TerrainStorage.CHUNK_SIZE * TerrainStorage.CHUNK_SIZE / 2, storage.dataBytes());
+
+        byte[] row = new byte[200];
+        storage.readRow(65, 0, 200, row);
+        for (int x = 0; x < 200; x++) {
+            assertEquals(storage.get(x, 65), row[x]);
+        }
+
+        storage.set(70, 65, Terrain.SQ.EMPTY.getCode());
+        storage.set(71, 65, Terrain.SQ.EMPTY.getCode());
+        storage.compact();
+        assertEquals(0, storage.dataBytes());
+    }
+
+    @Test
+    public void jobSchedulerOrder() {
+        JobScheduler jobs = new JobScheduler(200, 200);
+        MoveToJob far = new MoveToJob(150, 150);
+        MoveToJob near = new MoveToJob(12, 10);
+        MoveToJob nearer = new MoveToJob(11, 11);
+        MoveToJob urgent = new MoveToJob(190, 190);
+        urgent.setPriority(5);
+        jobs.add(far);
+        jobs.add(near);
+        jobs.add(nearer);
+        jobs.add(urgent);
+
+        Actor a = new Actor("A", new Loc(10, 10));
+        assertSame(urgent, jobs.assign(a));
+        assertSame(nearer, jobs.assign(a));
+        assertSame(near, jobs.assign(a));
+        assertEquals(1, jobs.pendingSize());
+        assertEquals(3, jobs.activeSize());
+
+        jobs.completed(near);
+        assertEquals(2, jobs.activeSize());
+        assertSame(far, jobs.assign(new Actor("B", new Loc(0, 0))));
+        assertNull(jobs.assign(a));
+        assertEquals(0, jobs.pendingSize());
+    }
+
+    @Test
+    public void jobSchedulerFindsFarTopPriorityPastLowerOnes() {
+        JobScheduler jobs = new JobScheduler(512, 512);
+        Random r = new Random(7);
+        List<MoveToJob> low = new ArrayList<MoveToJob>();
+        for (int i = 0; i < 2000; i++) {
+            MoveToJob m = new MoveToJob(r.nextInt(256), r.nextInt(256));
+            low.add(m);
+            jobs.add(m);
+        }
+        MoveToJob urgent = new MoveToJob(500, 510);
+        MoveToJob urgentNear = new MoveToJob(400, 400);
+        urgent.setPriority(5);
+        urgentNear.setPriority(5);
+        jobs.add(urgent);
+        jobs.add(urgentNear);
+
+        Actor a = new Actor("A", new Loc(0, 0));
+        assertSame(urgentNear, jobs.assign(a));
+        assertSame(urgent, jobs.assign(a));
+
+        // The rest come out nearest first, ties to the earliest added
+        while (!low.isEmpty()) {
+            Actor b = new Actor("B", new Loc(r.nextInt(512), r.nextInt(512)));
+            MoveToJob expected = null;
+            int expectedDist = Integer.MAX_VALUE;
+            for (MoveToJob m : low) {
+                int d = Math.max(Math.abs(m.getDestX() - b.getX()), Math.abs(m.getDestY() - b.getY()));
+                if (d < expectedDist) {
+                    expected = m;
+                    expectedDist = d;
+                }
+            }
+            assertSame(expected, jobs.assign(b));
+            low.remove(expected);
+        }
+        assertNull(jobs.assign(a));
+    }
+
+    @Test
+    public void parallelTickMatchesSerial() {
+        World serial = seededWorld();
+        World parallel = seededWorld();
+        parallel.setParallelTick(true);
+
+        for (int tick = 0; tick < 100; tick++) {
+            serial.tick();
+            parallel.tick();
+            assertEquals(serial.jobListSize(), parallel.jobListSize());
+            for (int i = 0; i < serial.getActors().size(); i++) {
+                assertEquals(serial.getActors().get(i).getLoc(), parallel.getActors().get(i).getLoc());
+            }
+        }
+    }
+
+    private static World seededWorld() {
+        World w = new World(128, 128, 99);
+        Random r = new Random(5);
+        for (int i = 0; i < 1000; i++) {
+            w.addActor(new Actor("A" + i, new Loc(1 + r.nextInt(126), 1 + r.nextInt(126))));
+        }
+        for (int i = 0; i < 1200; i++) {
+            w.addJob(new MoveToJob(1 + r.nextInt(126), 1 + r.nextInt(126)));
+        }
+        return w;
+    }
+
+    @Test
+    public void spatialIndexesMatchScan() {
+        List<SpatialIndex<Integer>> indexes = new ArrayList<SpatialIndex<Integer>>();
+        indexes.add(new GridIndex<Integer>(8));
+        indexes.add(new QuadTreeIndex<Integer>(0, 0, 16));
+
+        Random r = new Random(11);
+        double[][] pos = new double[300][];
+        Integer[] ids = new Integer[pos.length];    // items are tracked by identity, so box each id once
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        for (int step = 0; step < 3000; step++) {
+            Integer id = ids[r.nextInt(pos.length)];
+            if (pos[id] != null && r.nextInt(4) == 0) {
+                pos[id] = null;
+                for (SpatialIndex<Integer> index : indexes) {
+                    assertTrue(index.remove(id));
+                }
+            } else {
+                pos[id] = new double[] { r.nextInt(200) - 50, r.nextDouble() * 150 };
+                for (SpatialIndex<Integer> index : indexes) {
+                    index.put(id, pos[id][0], pos[id][1]);
+                }
+            }
+
+            double x = r.nextInt(200) - 50;
+            double y = r.nextDouble() * 150;
+            double d = r.nextInt(40);
+            List<Integer> expected = new ArrayList<Integer>();
+            for (int i = 0; i < pos.length; i++) {
+                if (pos[i] != null && Math.abs(pos[i][0] - x) <= d && Math.abs(pos[i][1] - y) <= d) {
+                    expected.add(i);
+                }
+            }
+
+            for (SpatialIndex<Integer> index : indexes) {
+                List<Integer> found = new ArrayList<Integer>();
+                index.range(x - d, y - d, x + d, y + d, found);
+                Collections.sort(found);
+                assertEquals(expected, found);
+                assertEquals(expected.size(), index.count(x - d, y - d, x + d, y + d));
+
+                List<Integer> nearest = new ArrayList<Integer>();
+                index.nearest(x, y, 5, nearest);
+                assertEquals(Math.min(5, index.size()), nearest.size());
+                double furthest = 0;
+                for (Integer i : nearest) {
+                    double dist = Math.hypot(pos[i][0] - x, pos[i][1] - y);
+                    assertTrue(dist >= furthest);
+                    furthest = dist;
+                }
+                for (int i = 0; i < pos.length; i++) {
+                    if (pos[i] != null && !nearest.contains(i)) {
+                        assertTrue(Math.hypot(pos[i][0] - x, pos[i][1] - y) >= furthest);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void actorsNear() {
+        World w = new World(64, 64, 3);
+        Actor a = new Actor("a", new Loc(10, 10));
+        Actor b = new Actor("b", new Loc(30, 30));
+        w.addActor(a);
+        w.addActor(b);
+
+        assertEquals(Arrays.asList(a), w.actorsNear(new Loc(12, 12), 2));
+        b.moveTo(13, 11);
+        assertEquals(2, w.actorsNear(new Loc(12, 12), 2).size());
+        assertEquals(0, w.actorsNear(new Loc(30, 30), 5).size());
+    }
+
+    @Test
+    public void headlessRunner() throws Exception {
+        HeadlessRunner runner = new HeadlessRunner();
+        runner.parse(new String[] { "--width", "32", "--height", "32", "--actors", "20", "--jobs", "50",
+                "--ticks", "40", "--warmup", "0", "--seed", "7", "--refill" });
+        HeadlessRunner.Report report = runner.run();
+        assertEquals(40, report.getTicks());
+        assertTrue(report.getP50Nanos() <= report.getP99Nanos());
+        assertTrue(report.getP99Nanos() <= report.getMaxNanos());
+
+        long[] sorted = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+        assertEquals(5, HeadlessRunner.Report.percentile(sorted, 50));
+        assertEquals(10, HeadlessRunner.Report.percentile(sorted, 99));
+    }
+
+    @Test
+    public void bodyStoreMatchesGravity() {
+        BodyStore store = new BodyStore(2);
+        Gravity g = new Gravity();
+        Random r = new Random(8);
+        List<Entity> rocks = new ArrayList<Entity>();
+        for (int i = 0; i < 100; i++) {
+            Rock rock = new Rock(new Pos(r.nextDouble() * 100, 500 + r.nextDouble() * 100),
+                    new Velocity(r.nextDouble() - 0.5, r.nextDouble() - 0.5));
+            rocks.add(rock);
+            assertEquals(i, store.add(rock));
+        }
+
+        for (int step = 0; step < 200; step++) {
+            store.step(0.05);
+            for (Entity e : rocks) {
+                g.apply(e, 0.05);
+            }
+        }
+        for (int i = 0; i < rocks.size(); i++) {
+            assertEquals(rocks.get(i).getPos().getX(), store.getX(i), 1e-6);
+            assertEquals(rocks.get(i).getPos().getY(), store.getY(i), 1e-6);
+        }
+
+        // Views read and write the store, so the old per-entity path still works on them
+        Entity view = store.view(3);
+        double y = store.getY(3);
+        g.apply(view, 0.05);
+        assertTrue(store.getY(3) < y);
+        assertEquals(view.getPos().getY(), store.getY(3), 0);
+        assertEquals(1000, view.getMass(), 0);
+    }
+
+    @Test
+    public void barnesHutApproximatesExact() {
+        int n = 3000;
+        Random r = new Random(21);
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] mass = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = r.nextGaussian() * 100;
+            y[i] = r.nextGaussian() * 100;
+            mass[i] = 1 + r.nextDouble() * 1000;
+        }
+
+        NBodyGravity gravity = new NBodyGravity();
+        gravity.setSoftening(1);
+        double[] exactX = new double[n];
+        double[] exactY = new double[n];
+        gravity.setMode(NBodyGravity.Mode.EXACT);
+        gravity.accelerations(x, y, mass, n, exactX, exactY);
+
+        double[] ax = new double[n];
+        double[] ay = new double[n];
+        gravity.setMode(NBodyGravity.Mode.BARNES_HUT);
+        gravity.setTheta(0);
+        gravity.accelerations(x, y, mass, n, ax, ay);
+        for (int i = 0; i < n; i++) {
+            assertEquals(exactX[i], ax[i], Math.abs(exactX[i]) * 1e-9);
+            assertEquals(exactY[i], ay[i], Math.abs(exactY[i]) * 1e-9);
+        }
+
+        gravity.setTheta(0.3);
+        gravity.accelerations(x, y, mass, n, ax, ay);
+        double error = 0;
+        for (int i = 0; i < n; i++) {
+            error += Math.hypot(ax[i] - exactX[i], ay[i] - exactY[i]) / Math.hypot(exactX[i], exactY[i]);
+        }
+        assertTrue(error / n < 0.01);
+
+        double[] px = new double[n];
+        double[] py = new double[n];
+        gravity.setParallel(true);
+        gravity.accelerations(x, y, mass, n, px, py);
+        assertTrue(Arrays.equals(ax, px) && Arrays.equals(ay, py));
+    }
+
+    @Test
+    public void simulationPullsEntitiesTogether() {
+        Simulation sim = new Simulation();
+        sim.getGravity().setG(1);
+        Rock a = new Rock(new Pos(0, 0), Velocity.AT_REST);
+        Rock b = new Rock(new Pos(100, 0), Velocity.AT_REST);
+        sim.add(a);
+        sim.add(b);
+        Pos start = a.getPos();
+        sim.step(0.1);
+
+        assertTrue(a.getPos().getX() > 0);
+        // Positions are handed out as copies, the same as BodyStore views do
+        assertEquals(0, start.getX(), 0);
+        assertEquals(100 - a.getPos().getX(), b.getPos().getX(), 1e-9);
+        assertEquals(0, a.getPos().getY(), 0);
+        // Both rocks started from the shared constant; stepping moves their own copies
+        assertEquals(0, Velocity.AT_REST.getMagnitude(), 0);
+        assertTrue(a.getVel().getMagnitude() > 0);
+
+        List<Entity> near = new ArrayList<Entity>();
+        sim.getIndex().range(-1, -1, 1, 1, near);
+        assertEquals(Arrays.<Entity>asList(a), near);
+    }
+
+    @Test
+    public void broadPhaseFindsOverlappingBoxes() {
+        BodyStore bodies = new BodyStore();
+        Random r = new Random(4);
+        for (int i = 0; i < 500; i++) {
+            int b = bodies.add(1, r.nextDouble() * 100, r.nextDouble() * 100, 0, 0);
+            bodies.setRadius(b, 0.5 + r.nextDouble() * 2);
+        }
+
+        Collisions collisions = new Collisions();
+        for (int round = 0; round < 3; round++) {
+            collisions.broadPhase(bodies);
+            Set<Long> found = new HashSet<Long>();
+            int[] pair = new int[2];
+            for (int p = 0; p < collisions.getPairCount(); p++) {
+                collisions.getPair(p, pair);
+                assertTrue(found.add(Loc.pack(Math.min(pair[0], pair[1]), Math.max(pair[0], pair[1]))));
+            }
+
+            int expected = 0;
+            for (int a = 0; a < bodies.size(); a++) {
+                for (int b = a + 1; b < bodies.size(); b++) {
+                    double reach = bodies.getRadius(a) + bodies.getRadius(b);
+                    if (Math.abs(bodies.getX(a) - bodies.getX(b)) <= reach
+                            && Math.abs(bodies.getY(a) - bodies.getY(b)) <= reach) {
+                        expected++;
+                        assertTrue(found.contains(Loc.pack(a, b)));
+                    }
+                }
+            }
+            assertEquals(expected, found.size());
+
+            // Jiggle so the next round re-sorts from the previous order
+            for (int i = 0; i < bodies.size(); i++) {
+                bodies.setPos(i, bodies.getX(i) + r.nextGaussian(), bodies.getY(i));
+            }
+        }
+    }
+
+    @Test
+    public void pileSettlesOnGround() {
+        BodyStore bodies = new BodyStore();
+        Random r = new Random(6);
+        for (int i = 0; i < 400; i++) {
+            int b = bodies.add(1000, r.nextDouble() * 20, 5 + r.nextDouble() * 200, 0, 0);
+            bodies.setRadius(b, 0.5);
+        }
+
+        Collisions collisions = new Collisions();
+        for (int step = 0; step < 2000; step++) {
+            bodies.step(0.01);
+            collisions.resolve(bodies);
+        }
+
+        double worst = 0;
+        for (int a = 0; a < bodies.size(); a++) {
+            assertTrue(bodies.getY(a) >= 0.5);
+            for (int b = a + 1; b < bodies.size(); b++) {
+                double d = Math.hypot(bodies.getX(a) - bodies.getX(b), bodies.getY(a) - bodies.getY(b));
+                worst = Math.max(worst, 1 - d);
+            }
+        }
+        assertTrue("overlap " + worst, worst < 0.25);
+        assertTrue(collisions.getGroundContactCount() > 0);
+        assertTrue(collisions.getContactCount() > 0);
+    }
+
+    @Test
+    public void eventJournalFormatsInOrder() {
+        StringBuffer out = new StringBuffer();
+        EventJournal journal = new EventJournal(out, 16, EventJournal.Policy.BLOCK);
+        World w = new World(16, 16, 2);
+        w.setJournal(journal);
+        w.addActor(new Actor("a", new Loc(1, 1)));
+        w.addJob(new MoveToJob(3, 1));
+        for (int i = 0; i < 4; i++) {
+            w.tick();
+        }
+        for (int i = 0; i < 100; i++) {
+            journal.bodyPosition(0, i, 0, 1000 - i);
+        }
+        journal.close();
+
+        String[] lines = out.toString().split(System.lineSeparator());
+        assertEquals(103, lines.length);
+        assertEquals("Actor 0 moved Loc{x=1, y=1} -> Loc{x=2, y=1}", lines[0]);
+        assertEquals("Job complete MoveToJob{loc=Loc{x=3, y=1}}", lines[2]);
+        assertEquals(String.format("%.2f: %s", 99.0, new Pos(0, 901)), lines[102]);
+        assertEquals(0, journal.getDropped());
+        assertFalse(journal.bodyPosition(0, 0, 0, 0));
+    }
+
+    @Test
+    public void eventJournalDropsWhenFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final StringBuilder out = new StringBuilder();
+        Appendable stalled = new Appendable() {
+            @Override
+            public Appendable append(CharSequence csq) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                out.append(csq);
+                return this;
+            }
+
+            @Override
+            public Appendable append(CharSequence csq, int start, int end) {
+                return append(csq.subSequence(start, end));
+            }
+
+            @Override
+            public Appendable append(char c) {
+                return append(String.valueOf(c));
+            }
+        };
+
+        EventJournal journal = new EventJournal(stalled, 8, EventJournal.Policy.DROP);
+        int accepted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (journal.jobCompleted(i, EventJournal.NO_LOC)) {
+                accepted++;
+            }
+        }
+        assertEquals(100 - accepted, journal.getDropped());
+        assertTrue(accepted >= 8 && accepted <= 16);
+
+        release.countDown();
+        journal.close();
+        assertEquals(accepted, out.toString().split(System.lineSeparator()).length);
+    }
+
+    @Test
+    public void snapshotRoundTrip() throws Exception {
+        World w = new World(200, 150, 31);
+        Random r = new Random(31);
+        for (int i = 0; i < 50; i++) {
+            w.addActor(new Actor("A" + i, new Loc(1 + r.nextInt(198), 1 + r.nextInt(148))));
+        }
+        for (int i = 0; i < 120; i++) {
+            MoveToJob job = new MoveToJob(1 + r.nextInt(198), 1 + r.nextInt(148));
+            job.setPriority(r.nextInt(3));
+            w.addJob(job);
+        }
+        for (int i = 0; i < 10; i++) {
+            w.tick();
+        }
+
+        Path file = Files.createTempFile("world", ".snap");
+        try {
+            WorldSnapshot.save(w, file);
+            World loaded = WorldSnapshot.load(file);
+            assertTrue(loaded.getTerrain().getStorage().getPendingChunks() > 0);
+
+            for (int y = 0; y < 150; y++) {
+                for (int x = 0; x < 200; x++) {
+                    assertEquals(w.getTerrain().getCode(x, y), loaded.getTerrain().getCode(x, y));
+                }
+            }
+            assertEquals(0, loaded.getTerrain().getStorage().getPendingChunks());
+            assertEquals(w.toString(), loaded.toString());
+            assertEquals(w.getRandom().nextLong(), loaded.getRandom().nextLong());
+
+            loaded.addJob(new MoveToJob(5, 5));
+            w.addJob(new MoveToJob(5, 5));
+            for (int i = 0; i < 200; i++) {
+                w.tick();
+                loaded.tick();
+            }
+            assertEquals(w.toString(), loaded.toString());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void stateRandomMatchesRandom() {
+        StateRandom s = new StateRandom(77);
+        Random r = new Random(77);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(r.nextInt(), s.nextInt());
+        }
+        StateRandom copy = new StateRandom();
+        copy.setState(s.getState());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(r.nextDouble(), copy.nextDouble(), 0);
+        }
+    }
+
+    @Test
+    public void replayReproducesRun() throws Exception {
+        Path file = Files.createTempFile("world", ".replay");
+        try {
+            recordRun(file, false);
+            Replay.Result result = Replay.run(file, true, 3);
+            assertFalse(result.isDiverged());
+            assertEquals(300, result.getTicks());
+            assertEquals(30, result.getChecksumsVerified());
+
+            // A terrain edit is not an input the journal knows about, so the replay drifts
+            recordRun(file, true);
+            result = Replay.run(file, false, 0);
+            assertTrue(result.isDiverged());
+            assertEquals(160, result.getDivergedAt());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void recordRun(Path file, boolean editTerrain) throws Exception {
+        Random r = new Random(12);
+        World w = new World(64, 64, new StateRandom(r.nextLong()));
+        w.setJournal(null);
+        try (ReplayRecorder recorder = new ReplayRecorder(file, 10)) {
+            w.setRecorder(recorder);
+            for (int tick = 0; tick < 300; tick++) {
+                if (tick % 20 == 0) {
+                    w.addActor(new Actor("A" + tick, new Loc(1 + r.nextInt(62), 1 + r.nextInt(62))));
+                }
+                if (tick % 3 == 0) {
+                    MoveToJob job = new MoveToJob(1 + r.nextInt(62), 1 + r.nextInt(62));
+                    job.setPriority(r.nextInt(2));
+                    w.addJob(job);
+                }
+                if (editTerrain && tick == 150) {
+                    w.getTerrain().set(10, 10, Terrain.SQ.WATER);
+                }
+                w.tick();
+            }
+        }
+    }
+
+    @Test
+    public void checksumLeavesLazyChunksAlone() {
+        World lazy = new World(1024, 1024, 9);
+        World eager = new World(1024, 1024, 9);
+        eager.getTerrain().pregenerate();
+        int pending = lazy.getTerrain().getStorage().getPendingChunks();
+        assertTrue(pending > 0);
+
+        assertEquals(eager.checksum(), lazy.checksum());
+        assertEquals(pending, lazy.getTerrain().getStorage().getPendingChunks());
+
+        // An edit shows, and undoing it restores the original hash
+        long before = lazy.checksum();
+        Terrain.SQ old = lazy.getTerrain().get(500, 500);
+        Terrain.SQ other = (old == Terrain.SQ.WATER) ? Terrain.SQ.ROCK : Terrain.SQ.WATER;
+        lazy.getTerrain().set(500, 500, other);
+        assertTrue(before != lazy.checksum());
+        eager.getTerrain().set(500, 500, other);
+        assertEquals(eager.checksum(), lazy.checksum());
+        lazy.getTerrain().set(500, 500, old);
+        assertEquals(before, lazy.checksum());
+    }
+
+    @Test
+    public void terrainRasterTracksChanges() {
+        Terrain t = new Terrain(new Random(3), 40, 30);
+        Color[] colors = { Color.WHITE, Color.LIGHT_GRAY, Color.GRAY, Color.BLUE, Color.DARK_GRAY, Color.GREEN };
+        TerrainRaster raster = new TerrainRaster(t, colors);
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 40; x++) {
+                assertEquals(colors[t.getCode(x, y)].getRGB(), raster.getRGB(x, y));
+            }
+        }
+        assertNull(raster.takeDirty());
+
+        t.set(5, 6, Terrain.SQ.WATER);
+        t.set(9, 8, Terrain.SQ.ROCK);
+        assertEquals(Color.BLUE.getRGB(), raster.getRGB(5, 6));
+        assertEquals(new Rectangle(5, 6, 5, 3), raster.takeDirty());
+        assertNull(raster.takeDirty());
+
+        raster.dispose();
+        t.set(1, 1, Terrain.SQ.WATER);
+        assertNull(raster.takeDirty());
+    }
+
+    @Test
+    public void tripleBufferHandsOverWholeValues() throws Exception {
+        final TripleBuffer<long[]> buffer = new TripleBuffer<long[]>(new long[2], new long[2], new long[2]);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                for (long i = 1; i <= 200000; i++) {
+                    long[] v = buffer.back();
+                    v[0] = i;
+                    v[1] = -i;
+                    buffer.publish();
+                }
+            }
+        };
+        writer.start();
+
+        long last = 0;
+        while (last < 200000) {
+            long[] v = buffer.latest();
+            assertEquals(v[0], -v[1]);
+            assertTrue(v[0] >= last);
+            last = v[0];
+        }
+        writer.join();
+    }
+
+    @Test
+    public void simulationThreadPublishesSnapshots() throws Exception {
+        World w = new World(32, 32, 5);
+        w.setJournal(null);
+        w.addActor(new Actor("Sally", new Loc(12, 15)));
+        for (int i = 0; i < 50; i++) {
+            w.addJob(new MoveToJob(2 + i % 28, 2 + (i * 7) % 28));
+        }
+
+        SimulationThread sim = new SimulationThread(w, 0);
+        RenderSnapshot first = sim.latest();
+        assertEquals(0, first.getTick());
+        assertEquals(12, first.getX(0));
+        assertFalse(first.hasTarget(0));
+
+        sim.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (sim.latest().getTick() < 20 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        sim.stop();
+        assertNull(sim.getFailure());
+
+        RenderSnapshot s = sim.latest();
+        assertEquals(w.getTickCount(), s.getTick());
+        assertEquals(w.getActors().get(0).getX(), s.getX(0));
+        assertEquals('S', s.getLabel(0));
+        int[] b = new int[4];
+        s.getBounds(0, b);
+        assertTrue(b[0] <= s.getX(0) && s.getX(0) <= b[2]);
+    }
+
+    @Test
+    public void renderedRoutesAreCheapestPathsFromTheJobs() {
+        // Twelve actors sharing one destination's flow field, then one alone with its planner
+        for (int actors : new int[] {12, 1}) {
+            World w = new World(64, 64, 8);
+            w.setJournal(null);
+            Terrain t = w.getTerrain();
+            t.set(32, 32, Terrain.SQ.EMPTY);
+            Random r = new Random(5);
+            while (w.getActors().size() < actors) {
+                int x = 1 + r.nextInt(62);
+                int y = 1 + r.nextInt(62);
+                if (t.isPassable(x, y) && (new DStarLite(t, 32, 32).pathCost(x, y) > 10 * AStar.DIAGONAL_COST)) {
+                    w.addActor(new Actor("A" + w.getActors().size(), new Loc(x, y)));
+                    w.addJob(new MoveToJob(32, 32));
+                }
+            }
+            w.tick();
+            long searched = w.getPathCache().getMisses();
+
+            RenderSnapshot s = new RenderSnapshot();
+            s.fill(w, true);
+            assertEquals(searched, w.getPathCache().getMisses());
+            for (int i = 0; i < actors; i++) {
+                int x = s.getX(i);
+                int y = s.getY(i);
+                int cost = 0;
+                for (int step = 0; step < s.getPathLength(i); step++) {
+                    int px = s.getPathX(i, step);
+                    int py = s.getPathY(i, step);
+                    assertTrue(Math.max(Math.abs(px - x), Math.abs(py - y)) == 1);
+                    assertTrue(t.isPassable(px, py));
+                    cost += AStar.stepCost(px - x, py - y);
+                    x = px;
+                    y = py;
+                }
+                assertEquals(new Loc(32, 32), new Loc(x, y));
+                assertEquals(new DStarLite(t, 32, 32).pathCost(s.getX(i), s.getY(i)), cost);
+            }
+            assertEquals((actors > 1) ? 1 : 0, w.getFlowFields().getBuilds());
+        }
+    }
+
+    @Test
+    public void histogramPercentilesAreWithinABucket() {
+        Histogram h = new Histogram("test");
+        for (int v = 1; v <= 10000; v++) {
+            h.record(v);
+        }
+        Histogram.Snapshot s = h.snapshot();
+        assertEquals(10000, s.getCount());
+        assertEquals(10000, s.getMax());
+        assertEquals(5000.5, s.getMean(), 1e-9);
+        assertTrue(s.getP50() >= 5000 && s.getP50() <= 5000 * 1.125);
+        assertTrue(s.getP99() >= 9900 && s.getP99() <= 10000);
+        for (long v = 0; v < 1000000; v += 7) {
+            assertTrue(Histogram.bucketHigh(Histogram.bucket(v)) >= v);
+        }
+    }
+
+    @Test
+    public void metricsRecordSolvesAndTicksOnlyWhenEnabled() {
+        World w = new World(32, 32, 9);
+        w.setJournal(null);
+        w.addActor(new Actor("A", new Loc(1, 1)));
+        w.addJob(new MoveToJob(20, 20));
+
+        Metrics.reset();
+        w.tick();
+        new AStar(w.getTerrain()).solve(new Loc(0, 0), new Loc(5, 5));
+        assertEquals(0, Metrics.snapshot(false).getTicks());
+        assertEquals(0, Metrics.snapshot(false).getSolves());
+
+        Metrics.setEnabled(true);
+        try {
+            w.tick();
+            new AStar(w.getTerrain()).solve(new Loc(0, 0), new Loc(31, 31));
+            Metrics.Snapshot s = Metrics.snapshot(true);
+            assertEquals(1, s.getTicks());
+            assertTrue(s.getSolves() >= 1);
+            assertTrue(s.get("astar.expanded").getMax() > 0);
+            assertTrue(s.get("astar.peakOpen").getMax() > 0);
+            assertEquals(1, s.get("tick.nanos").getCount());
+            assertEquals(w.getJobs().activeSize(), s.getActiveJobs());
+            assertEquals(0, Metrics.snapshot(false).getTicks());
+        } finally {
+            Metrics.setEnabled(false);
+        }
+    }
+
+    @Test
+    public void chunkedTerrainIsTheSameHoweverItIsGenerated() {
+        Terrain lazy = new Terrain(new Random(), 42L, 300, 200);
+        Terrain eager = new Terrain(new Random(), 42L, 300, 200);
+        TerrainStorage storage = lazy.getStorage();
+        assertEquals(storage.getChunkCount(), storage.getPendingChunks());
+
+        eager.pregenerate();
+        assertEquals(0, eager.getStorage().getPendingChunks());
+
+        // Touch the lazy one's chunks in a scrambled order
+        List<Integer> rows = new ArrayList<>();
+        for (int y = 0; y < 200; y++) {
+            rows.add(y);
+        }
+        Collections.shuffle(rows, new Random(1));
+        byte[] a = new byte[300];
+        byte[] b = new byte[300];
+        int trees = 0;
+        for (int y : rows) {
+            lazy.readRow(y, 0, 300, a);
+            eager.readRow(y, 0, 300, b);
+            assertArrayEquals(b, a);
+            for (int x = 0; x < 300; x++) {
+                boolean border = (x == 0) || (y == 0) || (x == 299) || (y == 199);
+                assertEquals(border, a[x] == Terrain.SQ.INDESTRUCTABLE.getCode());
+                if (a[x] == Terrain.SQ.TREE.getCode()) {
+                    trees++;
+                }
+            }
+        }
+        assertEquals(0.2, trees / (298.0 * 198.0), 0.02);
+
+        Terrain other = new Terrain(new Random(), 43L, 300, 200);
+        other.readRow(100, 0, 300, a);
+        lazy.readRow(100, 0, 300, b);
+        assertFalse(Arrays.equals(a, b));
+    }
+
+    @Test
+    public void dStarLiteAgreesWithAStarAsTerrainChanges() {
+        Random r = new Random(11);
+        for (int trial = 0; trial < 20; trial++) {
+            Terrain t = new Terrain(new Random(), r.nextLong(), 40, 30);
+            for (int i = 0; i < 200; i++) {
+                t.set(1 + r.nextInt(38), 1 + r.nextInt(28), Terrain.SQ.WATER);
+            }
+            int gx = 1 + r.nextInt(38);
+            int gy = 1 + r.nextInt(28);
+            int x = 1 + r.nextInt(38);
+            int y = 1 + r.nextInt(28);
+            DStarLite planner = new DStarLite(t, gx, gy);
+            AStar aStar = new AStar(t);
+            while ((x != gx) || (y != gy)) {
+                for (int c = r.nextInt(4); c > 0; c--) {
+                    t.set(1 + r.nextInt(38), 1 + r.nextInt(28), r.nextBoolean() ? Terrain.SQ.WATER : Terrain.SQ.EMPTY);
+                }
+                List<Loc> path = aStar.solve(new Loc(x, y), new Loc(gx, gy));
+                int expected = -1;
+                if (path != null) {
+                    expected = 0;
+                    for (int i = 1; i < path.size(); i++) {
+                        expected += AStar.stepCost(path.get(i).getX() - path.get(i - 1).getX(),
+                                path.get(i).getY() - path.get(i - 1).getY());
+                    }
+                }
+                assertEquals(expected, planner.pathCost(x, y));
+
+                int next = planner.next(x, y);
+                if (next == DStarLite.NO_PATH) {
+                    break;
+                }
+                assertTrue(t.isPassable(next % 40, next / 40));
+                x = next % 40;
+                y = next / 40;
+            }
+        }
+    }
+
+    @Test
+    public void moveToJobReplansAroundNewWalls() {
+        World w = new World(20, 20, 4);
+        w.setJournal(null);
+        Terrain t = w.getTerrain();
+        for (int y = 1; y < 19; y++) {
+            for (int x = 1; x < 19; x++) {
+                t.set(x, y, Terrain.SQ.EMPTY);
+            }
+        }
+        Actor a = new Actor("A", new Loc(2, 10));
+        w.addActor(a);
+        w.addJob(new MoveToJob(17, 10));
+        w.tick();
+        w.tick();
+        assertEquals(new Loc(4, 10), a.getLoc());
+
+        // A wall across the route with one gap at the top
+        for (int y = 2; y < 19; y++) {
+            t.set(8, y, Terrain.SQ.ROCK);
+        }
+        int ticks = 0;
+        while ((a.getCurrentJob() != null) && (ticks++ < 100)) {
+            assertTrue(t.isPassable(a.getX(), a.getY()));
+            w.tick();
+        }
+        assertEquals(new Loc(17, 10), a.getLoc());
+
+        // Sealing the gap leaves the far side unreachable; the job ends where the actor is
+        t.set(8, 1, Terrain.SQ.ROCK);
+        a.setLoc(new Loc(3, 3));
+        w.addJob(new MoveToJob(15, 15));
+        w.tick();
+        assertNull(a.getCurrentJob());
+        assertEquals(new Loc(3, 3), a.getLoc());
+        assertEquals(0, w.getJobs().activeSize());
+    }
+
+    @Test
+    public void generatedChunksAreTheSameWhenFirstTouchedConcurrently() throws Exception {
+        for (long seed = 1; seed <= 5; seed++) {
+            Terrain eager = new Terrain(new Random(), seed, 320, 320);
+            eager.pregenerate();
+            Terrain lazy = new Terrain(new Random(), seed, 320, 320);
+            assertConcurrentReadsMatch(eager, lazy);
+            assertEquals(0, lazy.getStorage().getPendingChunks());
+        }
+    }
+
+    @Test
+    public void snapshotChunksLoadCorrectlyUnderConcurrentReads() throws Exception {
+        World w = new World(256, 256, 41);
+        Random r = new Random(41);
+        for (int i = 0; i < 40; i++) {
+            int x0 = r.nextInt(200);
+            int y0 = r.nextInt(200);
+            Terrain.SQ sq = r.nextBoolean() ? Terrain.SQ.WATER : Terrain.SQ.ROCK;
+            for (int y = y0; y < y0 + 40; y++) {
+                for (int x = x0; x < x0 + 40; x++) {
+                    w.getTerrain().set(x, y, sq);
+                }
+            }
+        }
+        Path file = Files.createTempFile("world", ".snap");
+        try {
+            WorldSnapshot.save(w, file);
+            for (int round = 0; round < 5; round++) {
+                World loaded = WorldSnapshot.load(file);
+                assertConcurrentReadsMatch(w.getTerrain(), loaded.getTerrain());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Reads every cell of actual from several threads at once, each in its own order
+    private static void assertConcurrentReadsMatch(final Terrain expected, final Terrain actual) throws Exception {
+        final int width = expected.getWidth();
+        final int height = expected.getHeight();
+        final CountDownLatch go = new CountDownLatch(1);
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    List<Integer> cells = new ArrayList<>();
+                    for (int i = 0; i < width * height; i++) {
+                        cells.add(i);
+                    }
+                    Collections.shuffle(cells, new Random(seed));
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int cell : cells) {
+                        int x = cell % width;
+                        int y = cell / width;
+                        if (actual.getCode(x, y) != expected.getCode(x, y)) {
+                            errors.add("cell " + x + "," + y);
+                            return;
+                        }
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.<String>emptyList(), errors);
+    }
+}
@@ -0,0 +1,259 @@
+package com.ron.phys;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Typed events recorded on the hot path and written out later. Recording copies a few
+ * primitives into a preallocated ring; a daemon thread drains the ring in batches, formats
+ * the events and appends them to the output. Any thread may record.
+ *
+ * When the ring is full, a DROP journal discards the new event and counts it, and a BLOCK
+ * journal makes the recording thread wait for room.
+ */
+public class EventJournal {
+    public enum Policy { DROP, BLOCK }
+
+    public enum Type { JOB_COMPLETED, ACTOR_MOVED, BODY_POSITION }
+
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+    public static final long NO_LOC = Long.MIN_VALUE;
+
+    private static final int BATCH = 1024;
+    private static final long IDLE_NANOS = 1000000;
+    private static final long BLOCKED_NANOS = 10000;
+
+    private static EventJournal console;
+
+    private final Appendable out;
+    private final Policy policy;
+    private final int mask;
+
+    // One slot per event; what a, b, c and d, e, f mean depends on the type
+    private final byte[] types;
+    private final long[] a;
+    private final long[] b;
+    private final long[] c;
+    private final double[] d;
+    private final double[] e;
+    private final double[] f;
+    private final AtomicLongArray published;    // sequence number written to each slot
+
+    private final AtomicLong head = new AtomicLong();   // next sequence to claim
+    private volatile long tail;                          // next sequence to drain
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile int enabled = (1 << Type.values().length) - 1;
+    private volatile boolean closed;
+    private volatile IOException failure;
+    private final Thread drainer;
+
+    public EventJournal(Appendable out, int capacity, Policy policy) {
+        if ((capacity <= 0) || (Integer.bitCount(capacity) != 1)) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        this.out = out;
+        this.policy = policy;
+        this.mask = capacity - 1;
+        this.types = new byte[capacity];
+        this.a = new long[capacity];
+        this.b = new long[capacity];
+        this.c = new long[capacity];
+        this.d = new double[capacity];
+        this.e = new double[capacity];
+        this.f = new double[capacity];
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+
+        this.drainer = new Thread("event-journal") {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        };
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * The shared journal printing to System.out, as the old println calls did. Actor moves are
+     * off by default because there are so many of them.
+     */
+    public static synchronized EventJournal console() {
+        if (console == null) {
+            final EventJournal journal = new EventJournal(System.out, DEFAULT_CAPACITY, Policy.BLOCK);
+            journal.setEnabled(Type.ACTOR_MOVED, false);
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    journal.close();
+                }
+            });
+            console = journal;
+        }
+        return console;
+    }
+
+    public boolean isEnabled(Type type) {
+        return (enabled & (1 << type.ordinal())) != 0;
+    }
+
+    public synchronized void setEnabled(Type type, boolean on) {
+        int bit = 1 << type.ordinal();
+        enabled = on ? (enabled | bit) : (enabled & ~bit);
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * The last error from writing the output, if any. Events that failed to write are lost.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    public boolean jobCompleted(long seq, long dest) {
+        return record(Type.JOB_COMPLETED, seq, dest, 0, 0, 0, 0);
+    }
+
+    public boolean actorMoved(int actor, long from, long to) {
+        return record(Type.ACTOR_MOVED, actor, from, to, 0, 0, 0);
+    }
+
+    public boolean bodyPosition(int body, double time, double x, double y) {
+        return record(Type.BODY_POSITION, body, 0, 0, time, x, y);
+    }
+
+    /**
+     * Waits until everything recorded before this call has been written out.
+     */
+    public void flush() {
+        long target = head.get();
+        while ((tail < target) && drainer.isAlive()) {
+            LockSupport.unpark(drainer);
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Writes out what is left and stops the drain thread. Later events are dropped.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean record(Type type, long a, long b, long c, double d, double e, double f) {
+        if (!isEnabled(type)) {
+            return false;
+        }
+
+        long seq;
+        while (true) {
+            if (closed) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            seq = head.get();
+            if (seq - tail > mask) {
+                if (policy == Policy.DROP) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                LockSupport.unpark(drainer);
+                LockSupport.parkNanos(BLOCKED_NANOS);
+                continue;
+            }
+            if (head.compareAndSet(seq, seq + 1)) {
+                break;
+            }
+        }
+
+        int i = (int) seq & mask;
+        this.types[i] = (byte) type.ordinal();
+        this.a[i] = a;
+        this.b[i] = b;
+        this.c[i] = c;
+        this.d[i] = d;
+        this.e[i] = e;
+        this.f[i] = f;
+        published.lazySet(i, seq);
+        return true;
+    }
+
+    private void drainLoop() {
+        StringBuilder batch = new StringBuilder(BATCH * 32);
+        Type[] types = Type.values();
+        while (true) {
+            long t = tail;
+            int n = 0;
+            while ((n < BATCH) && (published.get((int) t & mask) == t)) {
+                format(types[this.types[(int) t & mask]], (int) t & mask, batch);
+                t++;
+                n++;
+            }
+
+            if (n > 0) {
+                write(batch);
+                batch.setLength(0);
+                // Slots are only handed back once their events are out
+                tail = t;
+            } else if (closed && (head.get() == t)) {
+                return;
+            } else {
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+    }
+
+    private void write(CharSequence text) {
+        try {
+            out.append(text);
+            if (out instanceof Flushable) {
+                ((Flushable) out).flush();
+            }
+        } catch (IOException ex) {
+            failure = ex;
+        }
+        if ((out instanceof PrintStream) && ((PrintStream) out).checkError()) {
+            failure = new IOException("Error writing to " + out);
+        }
+    }
+
+    private void format(Type type, int i, StringBuilder sb) {
+        switch (type) {
+            case JOB_COMPLETED:
+                sb.append("Job complete ");
+                if (b[i] != NO_LOC) {
+                    sb.append("MoveToJob{loc=").append(Loc.unpack(b[i])).append('}');
+                } else {
+                    sb.append("Job#").append(a[i]);
+                }
+                break;
+            case ACTOR_MOVED:
+                sb.append("Actor ").append(a[i]).append(" moved ")
+                        .append(Loc.unpack(b[i])).append(" -> ").append(Loc.unpack(c[i]));
+                break;
+            case BODY_POSITION:
+                sb.append(String.format("%.2f: %s", d[i], new Pos(e[i], f[i])));
+                break;
+        }
+        sb.append(System.lineSeparator());
+    }
+}
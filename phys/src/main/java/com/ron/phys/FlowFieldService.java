@@ -0,0 +1,228 @@
+package com.ron.phys;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shares one reverse-Dijkstra flow field per destination between every actor heading there.
+ * Callers acquire() a field when they start towards a destination and release() it when they
+ * stop; the field is dropped once nobody is using it.
+ *
+ * Where several cheapest steps tie, a field takes the first in AStar's direction order, the
+ * same step DStarLite takes, so walkers can switch between the two without changing course.
+ */
+public class FlowFieldService {
+    // Direction d steps by (DX[d], DY[d]); opposite directions are 7 - d apart
+    private static final int[] DX = {1, 1, 1, 0, 0, -1, -1, -1};
+    private static final int[] DY = {-1, 0, 1, -1, 1, -1, 0, 1};
+
+    private final Terrain terrain;
+    private final int terrainX;
+    private final int terrainY;
+    private final Map<Integer, FlowField> fields = new HashMap<Integer, FlowField>();
+
+    // Dijkstra scratch space shared by every field this service builds, made on first build
+    private int[] dist;
+    private IndexedMinHeap open;
+
+    private long builds;
+
+    public FlowFieldService(Terrain terrain) {
+        this.terrain = terrain;
+        this.terrainX = terrain.getWidth();
+        this.terrainY = terrain.getHeight();
+    }
+
+    public synchronized FlowField acquire(Loc dest) {
+        return acquire(dest, 0);
+    }
+
+    /**
+     * As acquire(), noting that the caller's own search would cover about searchCells cells.
+     */
+    synchronized FlowField acquire(Loc dest, long searchCells) {
+        Integer key = dest.getY() * terrainX + dest.getX();
+        FlowField field = fields.get(key);
+        if (field == null) {
+            field = new FlowField(dest.getX(), dest.getY());
+            fields.put(key, field);
+        }
+        field.users++;
+        field.demand += searchCells;
+        return field;
+    }
+
+    public synchronized void release(FlowField field) {
+        release(field, 0);
+    }
+
+    synchronized void release(FlowField field, long searchCells) {
+        if (field.users <= 0) {
+            throw new IllegalStateException("Flow field released more often than acquired: " + field.getDest());
+        }
+        field.demand -= searchCells;
+        if (--field.users == 0) {
+            fields.remove(field.destY * terrainX + field.destX);
+        }
+    }
+
+    public synchronized int size() {
+        return fields.size();
+    }
+
+    /**
+     * True once field is shared and its users' own searches would together cover at least as
+     * many cells as building it does.
+     */
+    synchronized boolean isWorthBuilding(FlowField field) {
+        return (field.users > 1) && (field.demand >= (long) terrainX * terrainY);
+    }
+
+    /**
+     * Builds field if it is out of date. Lets a caller pay for the build at a time of its
+     * choosing rather than on the first direction() after a change.
+     */
+    public void prepare(FlowField field) {
+        if (!field.isCurrent()) {
+            synchronized (this) {
+                if (!field.isCurrent()) {
+                    build(field);
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of fields computed so far, counting recomputation after terrain changes.
+     */
+    public synchronized long getBuilds() {
+        return builds;
+    }
+
+    private synchronized void build(FlowField field) {
+        int version = terrain.getModCount();
+        if (field.directions == null) {
+            field.directions = new byte[terrainX * terrainY];
+        }
+        Arrays.fill(field.directions, FlowField.UNREACHABLE);
+        builds++;
+        if (terrain.isPassable(field.destX, field.destY)) {
+            search(field);
+        }
+        // Published last: a reader that sees the new version sees finished directions
+        field.version = version;
+    }
+
+    private void search(FlowField field) {
+        if (dist == null) {
+            dist = new int[terrainX * terrainY];
+            open = new IndexedMinHeap(terrainX * terrainY);
+        }
+        byte[] dirs = field.directions;
+        Arrays.fill(dist, Integer.MAX_VALUE);
+        open.clear();
+
+        int goal = field.destY * terrainX + field.destX;
+        dist[goal] = 0;
+        dirs[goal] = FlowField.ARRIVED;
+        open.insertOrDecrease(goal, 0);
+
+        while (!open.isEmpty()) {
+            int current = open.poll();
+            int x = current % terrainX;
+            int y = current / terrainX;
+            for (int d = 0; d < DX.length; d++) {
+                // Walking from the neighbour back to current is a step of -DX[d], -DY[d]
+                int nx = x + DX[d];
+                int ny = y + DY[d];
+                if (!terrain.isPassable(nx, ny)) {
+                    continue;
+                }
+                int neighbor = ny * terrainX + nx;
+                int cost = dist[current] + AStar.stepCost(DX[d], DY[d]);
+                if (cost < dist[neighbor]) {
+                    dist[neighbor] = cost;
+                    dirs[neighbor] = (byte) (7 - d);
+                    open.insertOrDecrease(neighbor, cost);
+                } else if ((cost == dist[neighbor]) && (7 - d < dirs[neighbor])) {
+                    // Equally cheap: keep the step that comes first in direction order
+                    dirs[neighbor] = (byte) (7 - d);
+                }
+            }
+        }
+    }
+
+    /**
+     * One byte per cell: the direction of the next step towards the destination.
+     */
+    public class FlowField {
+        static final byte UNREACHABLE = -1;
+        static final byte ARRIVED = 8;
+
+        private final int destX;
+        private final int destY;
+        private byte[] directions;      // made on the first build
+        private volatile int version = -1;
+        private int users;
+        private long demand;        // cells the users' own searches would cover
+
+        private FlowField(int destX, int destY) {
+            this.destX = destX;
+            this.destY = destY;
+        }
+
+        public Loc getDest() {
+            return new Loc(destX, destY);
+        }
+
+        /**
+         * The cell to step onto from (x, y), or null if the destination is reached or unreachable.
+         */
+        public Loc next(int x, int y) {
+            int d = direction(x, y);
+            if ((d == UNREACHABLE) || (d == ARRIVED)) {
+                return null;
+            }
+            return new Loc(x + DX[d], y + DY[d]);
+        }
+
+        /**
+         * The cell (y * width + x) to step onto from (x, y), the destination itself if already
+         * there, or DStarLite.NO_PATH if it is unreachable. Only for a current field; unlike
+         * direction() this never builds, so it is safe while actors update in parallel.
+         */
+        int nextCell(int x, int y) {
+            int d = directions[y * terrainX + x];
+            if (d == UNREACHABLE) {
+                return DStarLite.NO_PATH;
+            }
+            if (d == ARRIVED) {
+                return y * terrainX + x;
+            }
+            return (y + DY[d]) * terrainX + x + DX[d];
+        }
+
+        /**
+         * True if the field has been built against the terrain as it is now.
+         */
+        public boolean isCurrent() {
+            return version == terrain.getModCount();
+        }
+
+        public boolean reachable(int x, int y) {
+            return direction(x, y) != UNREACHABLE;
+        }
+
+        /**
+         * 0-7 for a step, ARRIVED on the destination, UNREACHABLE otherwise.
+         */
+        public int direction(int x, int y) {
+            if ((x < 0) || (y < 0) || (x >= terrainX) || (y >= terrainY)) {
+                return UNREACHABLE;
+            }
+            prepare(this);
+            return directions[y * terrainX + x];
+        }
+    }
+}
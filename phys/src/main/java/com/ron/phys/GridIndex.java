@@ -0,0 +1,173 @@
+package com.ron.phys;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spatial hash over square cells of a fixed size. Only occupied cells are stored, so the grid
+ * is unbounded; moves within a cell only update coordinates.
+ */
+public class GridIndex<T> extends SpatialIndex<T> {
+    private final double cellSize;
+    private final Map<Long, List<Slot<T>>> cells = new HashMap<Long, List<Slot<T>>>();
+
+    // Cell bounds that have ever been occupied since the last clear; limits nearest() searches
+    private int minCx = Integer.MAX_VALUE;
+    private int minCy = Integer.MAX_VALUE;
+    private int maxCx = Integer.MIN_VALUE;
+    private int maxCy = Integer.MIN_VALUE;
+
+    public GridIndex(double cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("cellSize must be positive: " + cellSize);
+        }
+        this.cellSize = cellSize;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Number of items in the grid cell (cx, cy).
+     */
+    public int cellCount(int cx, int cy) {
+        List<Slot<T>> cell = cells.get(Loc.pack(cx, cy));
+        return (cell == null) ? 0 : cell.size();
+    }
+
+    public int cellOf(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    @Override
+    public void range(double minX, double minY, double maxX, double maxY, List<T> out) {
+        int x0 = cellOf(minX);
+        int y0 = cellOf(minY);
+        int x1 = cellOf(maxX);
+        int y1 = cellOf(maxY);
+        for (int cy = y0; cy <= y1; cy++) {
+            for (int cx = x0; cx <= x1; cx++) {
+                List<Slot<T>> cell = cells.get(Loc.pack(cx, cy));
+                if (cell == null) {
+                    continue;
+                }
+                for (Slot<T> s : cell) {
+                    if (inside(s, minX, minY, maxX, maxY)) {
+                        out.add(s.item);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public int count(double minX, double minY, double maxX, double maxY) {
+        int x0 = cellOf(minX);
+        int y0 = cellOf(minY);
+        int x1 = cellOf(maxX);
+        int y1 = cellOf(maxY);
+        int n = 0;
+        for (int cy = y0; cy <= y1; cy++) {
+            for (int cx = x0; cx <= x1; cx++) {
+                List<Slot<T>> cell = cells.get(Loc.pack(cx, cy));
+                if (cell == null) {
+                    continue;
+                }
+                boolean interior = (cx > x0) && (cx < x1) && (cy > y0) && (cy < y1);
+                if (interior) {
+                    n += cell.size();
+                } else {
+                    for (Slot<T> s : cell) {
+                        if (inside(s, minX, minY, maxX, maxY)) {
+                            n++;
+                        }
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    @Override
+    void collectNearest(Nearest<T> best) {
+        int cx = cellOf(best.x);
+        int cy = cellOf(best.y);
+        int maxRing = Math.max(Math.max(cx - minCx, maxCx - cx), Math.max(cy - minCy, maxCy - cy));
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // Anything in this ring is at least this far away
+            double reach = (ring - 1) * cellSize;
+            if (best.full() && (ring > 0) && (reach * reach > best.bound())) {
+                break;
+            }
+            for (int dy = -ring; dy <= ring; dy++) {
+                boolean edgeRow = (dy == -ring) || (dy == ring);
+                for (int dx = -ring; dx <= ring; dx += edgeRow ? 1 : 2 * ring) {
+                    List<Slot<T>> cell = cells.get(Loc.pack(cx + dx, cy + dy));
+                    if (cell != null) {
+                        for (Slot<T> s : cell) {
+                            best.offer(s);
+                        }
+                    }
+                    if (ring == 0) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    void insert(Slot<T> slot) {
+        int cx = cellOf(slot.x);
+        int cy = cellOf(slot.y);
+        Long key = Loc.pack(cx, cy);
+        List<Slot<T>> cell = cells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<Slot<T>>(4);
+            cells.put(key, cell);
+        }
+        slot.owner = cell;
+        slot.index = cell.size();
+        cell.add(slot);
+
+        minCx = Math.min(minCx, cx);
+        minCy = Math.min(minCy, cy);
+        maxCx = Math.max(maxCx, cx);
+        maxCy = Math.max(maxCy, cy);
+    }
+
+    @Override
+    void delete(Slot<T> slot) {
+        @SuppressWarnings("unchecked")
+        List<Slot<T>> cell = (List<Slot<T>>) slot.owner;
+        Slot<T> last = cell.remove(cell.size() - 1);
+        if (last != slot) {
+            cell.set(slot.index, last);
+            last.index = slot.index;
+        }
+        if (cell.isEmpty()) {
+            cells.remove(Loc.pack(cellOf(slot.x), cellOf(slot.y)));
+        }
+        slot.owner = null;
+    }
+
+    @Override
+    void move(Slot<T> slot, double x, double y) {
+        if ((cellOf(x) == cellOf(slot.x)) && (cellOf(y) == cellOf(slot.y))) {
+            slot.x = x;
+            slot.y = y;
+        } else {
+            super.move(slot, x, y);
+        }
+    }
+
+    @Override
+    void clearIndex() {
+        cells.clear();
+        minCx = minCy = Integer.MAX_VALUE;
+        maxCx = maxCy = Integer.MIN_VALUE;
+    }
+}
@@ -0,0 +1,221 @@
+package com.ron.phys;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a seeded World without a display and reports how fast it ticks. Ticks run back to
+ * back unless a target rate is given, in which case each tick starts on a fixed schedule.
+ *
+ * Usage: HeadlessRunner [--width 256] [--height 256] [--actors 1000] [--jobs 5000]
+ *                       [--ticks 1000] [--warmup 100] [--rate 0] [--seed 1] [--parallel] [--refill]
+ *                       [--record journal-file] [--metrics]
+ */
+public class HeadlessRunner {
+    private int width = 256;
+    private int height = 256;
+    private int actors = 1000;
+    private int jobs = 5000;
+    private int ticks = 1000;
+    private int warmup = 100;
+    private double rate;        // target ticks per second, 0 to run flat out
+    private long seed = 1;
+    private boolean parallel;
+    private boolean refill;     // top pending jobs back up to the starting count every tick
+    private Path record;        // replay journal to write, if any
+    private boolean metrics;    // collect Metrics over the timed ticks and print them
+
+    public static void main(String[] args) {
+        HeadlessRunner runner = new HeadlessRunner();
+        try {
+            runner.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+        try {
+            System.out.println(runner.run());
+            if (runner.metrics) {
+                System.out.print(Metrics.snapshot(false));
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write " + runner.record + ": " + e);
+            System.exit(1);
+        }
+    }
+
+    void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--parallel")) {
+                parallel = true;
+                continue;
+            }
+            if (arg.equals("--refill")) {
+                refill = true;
+                continue;
+            }
+            if (arg.equals("--metrics")) {
+                metrics = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            try {
+                switch (arg) {
+                    case "--width":  width = Integer.parseInt(value); break;
+                    case "--height": height = Integer.parseInt(value); break;
+                    case "--actors": actors = Integer.parseInt(value); break;
+                    case "--jobs":   jobs = Integer.parseInt(value); break;
+                    case "--ticks":  ticks = Integer.parseInt(value); break;
+                    case "--warmup": warmup = Integer.parseInt(value); break;
+                    case "--rate":   rate = Double.parseDouble(value); break;
+                    case "--seed":   seed = Long.parseLong(value); break;
+                    case "--record": record = Paths.get(value); break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad value for " + arg + ": " + value);
+            }
+        }
+    }
+
+    World buildWorld(ReplayRecorder recorder) throws IOException {
+        World w = new World(width, height, seed);
+        // Console output would be timed along with the ticks
+        w.setJournal(null);
+        w.setParallelTick(parallel);
+        w.setRecorder(recorder);
+        Random r = new Random(seed);
+        for (int i = 0; i < actors; i++) {
+            w.addActor(new Actor("A" + i, new Loc(r.nextInt(width), r.nextInt(height))));
+        }
+        for (int i = 0; i < jobs; i++) {
+            w.addJob(new MoveToJob(r.nextInt(width), r.nextInt(height)));
+        }
+        return w;
+    }
+
+    public Report run() throws IOException {
+        ReplayRecorder recorder = (record == null) ? null : new ReplayRecorder(record);
+        try {
+            return run(buildWorld(recorder));
+        } finally {
+            if (recorder != null) {
+                recorder.close();
+            }
+        }
+    }
+
+    private Report run(World w) {
+        Random r = new Random(seed ^ 0x5DEECE66DL);
+
+        if (metrics) {
+            Metrics.setEnabled(true);
+        }
+        for (int i = 0; i < warmup; i++) {
+            tick(w, r);
+        }
+        if (metrics) {
+            Metrics.reset();
+        }
+
+        long[] latencies = new long[ticks];
+        long period = (rate > 0) ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+        int late = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            if (period > 0) {
+                long deadline = start + i * period;
+                long wait = deadline - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                } else if (i > 0) {
+                    late++;
+                }
+            }
+            long t0 = System.nanoTime();
+            tick(w, r);
+            latencies[i] = System.nanoTime() - t0;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        return new Report(latencies, elapsed, late);
+    }
+
+    private void tick(World w, Random r) {
+        if (refill) {
+            for (int pending = w.getJobs().pendingSize(); pending < jobs; pending++) {
+                w.addJob(new MoveToJob(r.nextInt(width), r.nextInt(height)));
+            }
+        }
+        w.tick();
+    }
+
+    public static class Report {
+        private final int ticks;
+        private final long elapsedNanos;
+        private final int late;
+        private final long p50;
+        private final long p99;
+        private final long max;
+
+        Report(long[] latencies, long elapsedNanos, int late) {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            this.ticks = sorted.length;
+            this.elapsedNanos = elapsedNanos;
+            this.late = late;
+            this.p50 = percentile(sorted, 50);
+            this.p99 = percentile(sorted, 99);
+            this.max = (sorted.length == 0) ? 0 : sorted[sorted.length - 1];
+        }
+
+        // Nearest-rank percentile of an ascending array
+        static long percentile(long[] sorted, int p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+
+        public int getTicks() {
+            return ticks;
+        }
+
+        public double getTicksPerSecond() {
+            return (elapsedNanos == 0) ? 0 : ticks * 1e9 / elapsedNanos;
+        }
+
+        public long getP50Nanos() {
+            return p50;
+        }
+
+        public long getP99Nanos() {
+            return p99;
+        }
+
+        public long getMaxNanos() {
+            return max;
+        }
+
+        public int getLateTicks() {
+            return late;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d ticks in %.3f s: %.1f ticks/s, latency p50 %.3f ms, p99 %.3f ms, max %.3f ms, %d late",
+                    ticks, elapsedNanos / 1e9, getTicksPerSecond(), p50 / 1e6, p99 / 1e6, max / 1e6, late);
+        }
+    }
+}
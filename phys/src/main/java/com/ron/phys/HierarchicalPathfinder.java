@@ -0,0 +1,462 @@
+package com.ron.phys;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * HPA* over a Terrain. The grid is split into square clusters; cells where two neighbouring
+ * clusters touch through an open border become entrance nodes, and every pair of entrances
+ * inside a cluster is joined by the cost of the best path that stays in that cluster.
+ *
+ * Queries search this abstract graph first and only refine the waypoints they need with AStar.
+ * Terrain changes mark their cluster dirty; it is rebuilt on the next query.
+ */
+public class HierarchicalPathfinder implements TerrainListener {
+    public static final int DEFAULT_CLUSTER_SIZE = 16;
+
+    private static final int NONE = SearchContext.NONE;
+    private static final int INF = SearchContext.UNSEEN;
+
+    // Runs of open border at least this long get an entrance at each end instead of one in the middle
+    private static final int LONG_ENTRANCE = 6;
+
+    private static final int[] DX = {1, 1, 1, 0, 0, -1, -1, -1};
+    private static final int[] DY = {-1, 0, 1, -1, 1, -1, 0, 1};
+
+    // Crossings leave a cluster towards its east, south, south-east and south-west neighbours;
+    // the other four directions are the same lists seen from the neighbouring cluster.
+    private static final int[] CROSS_DX = {1, 0, 1, -1};
+    private static final int[] CROSS_DY = {0, 1, 1, 1};
+
+    private static final byte CLEAN = 0;
+    private static final byte DIRTY_INTERIOR = 1;
+    private static final byte DIRTY_BORDER = 2;
+
+    private final Terrain terrain;
+    private final AStar aStar;
+    private final int terrainX;
+    private final int terrainY;
+    private final int clusterSize;
+    private final int clustersX;
+    private final int clustersY;
+
+    // Per direction and cluster: (inside, outside) cell pairs crossing into that neighbour
+    private final int[][][] crossings;
+    // Per cluster: entrance cells inside it, and the k * k matrix of intra-cluster costs between them
+    private final int[][] nodes;
+    private final int[][] intraCost;
+    private final byte[] dirty;
+    private final List<Integer> dirtyClusters = new ArrayList<Integer>();
+
+    private SearchContext ctx;
+
+    // Bounded Dijkstra scratch space, one cluster in size
+    private final int[] localDist;
+    private final IndexedMinHeap localOpen;
+    private final int[] startDist;
+    private final int[] goalDist;
+
+    private int rebuilds;
+
+    public HierarchicalPathfinder(Terrain terrain) {
+        this(terrain, DEFAULT_CLUSTER_SIZE);
+    }
+
+    public HierarchicalPathfinder(Terrain terrain, int clusterSize) {
+        if (clusterSize < 2) {
+            throw new IllegalArgumentException("clusterSize must be at least 2: " + clusterSize);
+        }
+        this.terrain = terrain;
+        this.aStar = new AStar(terrain);
+        this.terrainX = terrain.getWidth();
+        this.terrainY = terrain.getHeight();
+        this.clusterSize = clusterSize;
+        this.clustersX = (terrainX + clusterSize - 1) / clusterSize;
+        this.clustersY = (terrainY + clusterSize - 1) / clusterSize;
+
+        int clusters = clustersX * clustersY;
+        this.crossings = new int[CROSS_DX.length][clusters][];
+        this.nodes = new int[clusters][];
+        this.intraCost = new int[clusters][];
+        this.dirty = new byte[clusters];
+
+        int local = clusterSize * clusterSize;
+        this.localDist = new int[local];
+        this.localOpen = new IndexedMinHeap(local);
+        this.startDist = new int[local];
+        this.goalDist = new int[local];
+
+        for (int c = 0; c < clusters; c++) {
+            buildCrossings(c);
+        }
+        for (int c = 0; c < clusters; c++) {
+            buildCluster(c);
+        }
+        terrain.addListener(this);
+    }
+
+    @Override
+    public void cellChanged(int x, int y) {
+        int cx = x / clusterSize;
+        int cy = y / clusterSize;
+        int c = cy * clustersX + cx;
+        int lx = x - cx * clusterSize;
+        int ly = y - cy * clusterSize;
+
+        boolean border = (lx == 0) || (ly == 0) || (lx == clusterSize - 1) || (ly == clusterSize - 1);
+        if (dirty[c] == CLEAN) {
+            dirtyClusters.add(c);
+        }
+        dirty[c] = (byte) Math.max(dirty[c], border ? DIRTY_BORDER : DIRTY_INTERIOR);
+    }
+
+    /**
+     * Number of clusters rebuilt because of terrain changes since construction.
+     */
+    public int getRebuilds() {
+        return rebuilds;
+    }
+
+    public List<Loc> solve(Loc start, Loc end) {
+        return solve(start, end, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Refines only the first segments hops of the abstract path. The returned path ends at that
+     * waypoint (or at end, if it is closer); callers re-query from there once they reach it.
+     */
+    public List<Loc> solve(Loc start, Loc end, int segments) {
+        if (!terrain.isPassable(start.getX(), start.getY())) {
+            // Stranded on a closed cell: no entrance graph to start from, so step off it the flat way
+            return aStar.solve(start, end);
+        }
+
+        List<Loc> waypoints = abstractPath(start, end);
+        if (waypoints == null) {
+            return null;
+        }
+
+        List<Loc> path = new ArrayList<>();
+        path.add(waypoints.get(0));
+        int last = Math.min(segments, waypoints.size() - 1);
+        for (int i = 0; i < last; i++) {
+            List<Loc> segment = aStar.solve(waypoints.get(i), waypoints.get(i + 1));
+            if (segment == null) {
+                return null;
+            }
+            path.addAll(segment.subList(1, segment.size()));
+        }
+        return path;
+    }
+
+    /**
+     * The entrance cells an abstract search passes through, including start and end,
+     * or null if end cannot be reached. Both start and end must be open cells.
+     */
+    public List<Loc> abstractPath(Loc start, Loc end) {
+        rebuildDirty();
+
+        int startCell = cell(start.getX(), start.getY());
+        int endCell = cell(end.getX(), end.getY());
+        if (!terrain.isPassable(start.getX(), start.getY()) || !terrain.isPassable(end.getX(), end.getY())) {
+            return null;
+        }
+
+        int startCluster = clusterOf(startCell);
+        int endCluster = clusterOf(endCell);
+        boundedDijkstra(startCluster, startCell, startDist);
+        boundedDijkstra(endCluster, endCell, goalDist);
+
+        ctx = SearchContext.get(terrainX * terrainY);
+        ctx.begin();
+        ctx.set(startCell, 0, NONE);
+        IndexedMinHeap openSet = ctx.openSet();
+        openSet.insertOrDecrease(startCell, estimate(startCell, endCell));
+
+        while (!openSet.isEmpty()) {
+            int current = openSet.poll();
+            if (current == endCell) {
+                return reconstructPath(current);
+            }
+            int g = ctx.gScore(current);
+            int c = clusterOf(current);
+
+            if (current == startCell) {
+                int[] startNodes = nodes[startCluster];
+                for (int node : startNodes) {
+                    relax(current, node, g, startDist[local(startCluster, node)], endCell);
+                }
+                if (startCluster == endCluster) {
+                    relax(current, endCell, g, startDist[local(startCluster, endCell)], endCell);
+                }
+            }
+
+            int i = indexOf(nodes[c], current);
+            if (i == NONE) {
+                continue;
+            }
+
+            int[] clusterNodes = nodes[c];
+            int[] costs = intraCost[c];
+            int k = clusterNodes.length;
+            for (int j = 0; j < k; j++) {
+                relax(current, clusterNodes[j], g, costs[i * k + j], endCell);
+            }
+            if (c == endCluster) {
+                relax(current, endCell, g, goalDist[local(endCluster, current)], endCell);
+            }
+
+            for (int d = 0; d < CROSS_DX.length; d++) {
+                relaxCrossing(current, crossings[d][c], 0, g, endCell);
+                int from = neighbor(c, -CROSS_DX[d], -CROSS_DY[d]);
+                if (from != NONE) {
+                    relaxCrossing(current, crossings[d][from], 1, g, endCell);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private void relaxCrossing(int current, int[] pairs, int side, int g, int endCell) {
+        for (int p = 0; p < pairs.length; p += 2) {
+            if (pairs[p + side] == current) {
+                int other = pairs[p + 1 - side];
+                int cost = AStar.stepCost(other % terrainX - current % terrainX, other / terrainX - current / terrainX);
+                relax(current, other, g, cost, endCell);
+            }
+        }
+    }
+
+    private void relax(int from, int to, int g, int cost, int endCell) {
+        if (cost == INF) {
+            return;
+        }
+        int tentative = g + cost;
+        if (tentative < ctx.gScore(to)) {
+            ctx.set(to, tentative, from);
+            ctx.openSet().insertOrDecrease(to, tentative + estimate(to, endCell));
+        }
+    }
+
+    private List<Loc> reconstructPath(int current) {
+        List<Loc> path = new ArrayList<>();
+        for (int c = current; c != NONE; c = ctx.cameFrom(c)) {
+            path.add(0, new Loc(c % terrainX, c / terrainX));
+        }
+        return path;
+    }
+
+    private void rebuildDirty() {
+        if (dirtyClusters.isEmpty()) {
+            return;
+        }
+
+        List<Integer> rebuild = new ArrayList<Integer>();
+        for (int c : dirtyClusters) {
+            if (dirty[c] == DIRTY_BORDER) {
+                // Crossings on any side may have moved, which changes the neighbours' nodes too
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int n = neighbor(c, dx, dy);
+                        if (n != NONE) {
+                            buildCrossings(n);
+                            addOnce(rebuild, n);
+                        }
+                    }
+                }
+            }
+            addOnce(rebuild, c);
+        }
+
+        for (int c : rebuild) {
+            buildCluster(c);
+            dirty[c] = CLEAN;
+            rebuilds++;
+        }
+        dirtyClusters.clear();
+    }
+
+    private static void addOnce(List<Integer> list, int c) {
+        if (!list.contains(c)) {
+            list.add(c);
+        }
+    }
+
+    private void buildCrossings(int c) {
+        int cx = c % clustersX;
+        int cy = c / clustersX;
+        int x0 = cx * clusterSize;
+        int y0 = cy * clusterSize;
+        int x1 = Math.min(x0 + clusterSize, terrainX);
+        int y1 = Math.min(y0 + clusterSize, terrainY);
+        boolean east = cx < clustersX - 1;
+        boolean south = cy < clustersY - 1;
+
+        crossings[0][c] = east ? scanBorder(x1 - 1, y0, 0, 1, y1 - y0, 1, 0) : new int[0];
+        crossings[1][c] = south ? scanBorder(x0, y1 - 1, 1, 0, x1 - x0, 0, 1) : new int[0];
+        crossings[2][c] = (east && south) ? corner(x1 - 1, y1 - 1, 1, 1) : new int[0];
+        crossings[3][c] = (cx > 0 && south) ? corner(x0, y1 - 1, -1, 1) : new int[0];
+    }
+
+    private int[] corner(int x, int y, int dx, int dy) {
+        if (terrain.isPassable(x, y) && terrain.isPassable(x + dx, y + dy)) {
+            return addPair(new int[0], x, y, dx, dy);
+        }
+        return new int[0];
+    }
+
+    /**
+     * Walks length cells from (x, y) in steps of (sx, sy), pairing each with the cell at offset
+     * (ox, oy) across the border, and places entrances on every run where both sides are open.
+     * Where two neighbouring rows are both closed, a diagonal step may still get across.
+     */
+    private int[] scanBorder(int x, int y, int sx, int sy, int length, int ox, int oy) {
+        int[] pairs = new int[0];
+        int runStart = NONE;
+        for (int i = 0; i <= length; i++) {
+            int px = x + sx * i;
+            int py = y + sy * i;
+            boolean open = (i < length) && terrain.isPassable(px, py) && terrain.isPassable(px + ox, py + oy);
+            if (open && runStart == NONE) {
+                runStart = i;
+            } else if (!open && runStart != NONE) {
+                int runEnd = i - 1;
+                if (runEnd - runStart + 1 >= LONG_ENTRANCE) {
+                    pairs = addPair(pairs, x + sx * runStart, y + sy * runStart, ox, oy);
+                    pairs = addPair(pairs, x + sx * runEnd, y + sy * runEnd, ox, oy);
+                } else {
+                    int mid = (runStart + runEnd) / 2;
+                    pairs = addPair(pairs, x + sx * mid, y + sy * mid, ox, oy);
+                }
+                runStart = NONE;
+            }
+
+            if ((i > 0) && (i < length) && !open && !crossesStraight(px - sx, py - sy, ox, oy)) {
+                if (terrain.isPassable(px - sx, py - sy) && terrain.isPassable(px + ox, py + oy)) {
+                    pairs = addPair(pairs, px - sx, py - sy, ox + sx, oy + sy);
+                }
+                if (terrain.isPassable(px, py) && terrain.isPassable(px - sx + ox, py - sy + oy)) {
+                    pairs = addPair(pairs, px, py, ox - sx, oy - sy);
+                }
+            }
+        }
+        return pairs;
+    }
+
+    private boolean crossesStraight(int x, int y, int ox, int oy) {
+        return terrain.isPassable(x, y) && terrain.isPassable(x + ox, y + oy);
+    }
+
+    private int[] addPair(int[] pairs, int x, int y, int ox, int oy) {
+        int[] result = Arrays.copyOf(pairs, pairs.length + 2);
+        result[pairs.length] = cell(x, y);
+        result[pairs.length + 1] = cell(x + ox, y + oy);
+        return result;
+    }
+
+    private void buildCluster(int c) {
+        // Collect this cluster's side of every crossing into or out of it
+        int[] cells = new int[0];
+        for (int d = 0; d < CROSS_DX.length; d++) {
+            cells = collect(cells, crossings[d][c], 0);
+            int from = neighbor(c, -CROSS_DX[d], -CROSS_DY[d]);
+            if (from != NONE) {
+                cells = collect(cells, crossings[d][from], 1);
+            }
+        }
+        nodes[c] = cells;
+
+        int k = cells.length;
+        int[] costs = new int[k * k];
+        for (int i = 0; i < k; i++) {
+            boundedDijkstra(c, cells[i], localDist);
+            for (int j = 0; j < k; j++) {
+                costs[i * k + j] = (i == j) ? INF : localDist[local(c, cells[j])];
+            }
+        }
+        intraCost[c] = costs;
+    }
+
+    private static int[] collect(int[] cells, int[] pairs, int side) {
+        for (int p = side; p < pairs.length; p += 2) {
+            if (indexOf(cells, pairs[p]) == NONE) {
+                cells = Arrays.copyOf(cells, cells.length + 1);
+                cells[cells.length - 1] = pairs[p];
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Fills dist (indexed by local cell) with path costs from source that never leave cluster c.
+     */
+    private void boundedDijkstra(int c, int source, int[] dist) {
+        int x0 = (c % clustersX) * clusterSize;
+        int y0 = (c / clustersX) * clusterSize;
+        int x1 = Math.min(x0 + clusterSize, terrainX);
+        int y1 = Math.min(y0 + clusterSize, terrainY);
+
+        Arrays.fill(dist, INF);
+        localOpen.clear();
+        int s = local(c, source);
+        dist[s] = 0;
+        localOpen.insertOrDecrease(s, 0);
+
+        while (!localOpen.isEmpty()) {
+            int current = localOpen.poll();
+            int x = x0 + current % clusterSize;
+            int y = y0 + current / clusterSize;
+            for (int i = 0; i < DX.length; i++) {
+                int nx = x + DX[i];
+                int ny = y + DY[i];
+                if ((nx < x0) || (ny < y0) || (nx >= x1) || (ny >= y1) || !terrain.isPassable(nx, ny)) {
+                    continue;
+                }
+                int neighbor = (ny - y0) * clusterSize + (nx - x0);
+                int d = dist[current] + AStar.stepCost(DX[i], DY[i]);
+                if (d < dist[neighbor]) {
+                    dist[neighbor] = d;
+                    localOpen.insertOrDecrease(neighbor, d);
+                }
+            }
+        }
+    }
+
+    private int neighbor(int c, int dx, int dy) {
+        int cx = c % clustersX + dx;
+        int cy = c / clustersX + dy;
+        if ((cx < 0) || (cy < 0) || (cx >= clustersX) || (cy >= clustersY)) {
+            return NONE;
+        }
+        return cy * clustersX + cx;
+    }
+
+    private int clusterOf(int cell) {
+        return (cell / terrainX / clusterSize) * clustersX + (cell % terrainX) / clusterSize;
+    }
+
+    private int local(int c, int cell) {
+        int x = cell % terrainX - (c % clustersX) * clusterSize;
+        int y = cell / terrainX - (c / clustersX) * clusterSize;
+        return y * clusterSize + x;
+    }
+
+    private static int indexOf(int[] cells, int cell) {
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] == cell) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    private int estimate(int cell, int endCell) {
+        return AStar.octile(endCell % terrainX - cell % terrainX, endCell / terrainX - cell / terrainX);
+    }
+
+    private int cell(int x, int y) {
+        return y * terrainX + x;
+    }
+}
@@ -0,0 +1,123 @@
+package com.ron.phys;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap over dense int ids (cell indices) with int keys.
+ * Supports decrease-key in O(log n) and never allocates after construction.
+ */
+public class IndexedMinHeap {
+    private static final int ABSENT = -1;
+
+    private int[] heap;     // heap slot -> id
+    private int[] pos;      // id -> heap slot, or ABSENT
+    private int[] keys;     // id -> key
+    private int size;
+
+    public IndexedMinHeap(int capacity) {
+        this.heap = new int[capacity];
+        this.pos = new int[capacity];
+        this.keys = new int[capacity];
+        Arrays.fill(pos, ABSENT);
+    }
+
+    public int capacity() {
+        return pos.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int id) {
+        return pos[id] != ABSENT;
+    }
+
+    public int keyOf(int id) {
+        return keys[id];
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            pos[heap[i]] = ABSENT;
+        }
+        size = 0;
+    }
+
+    /**
+     * Inserts id with the given key, or lowers its key if it is already queued.
+     * A larger key for a queued id is ignored.
+     */
+    public void insertOrDecrease(int id, int key) {
+        int p = pos[id];
+        if (p == ABSENT) {
+            keys[id] = key;
+            heap[size] = id;
+            pos[id] = size;
+            siftUp(size++);
+        } else if (key < keys[id]) {
+            keys[id] = key;
+            siftUp(p);
+        }
+    }
+
+    public int peek() {
+        return heap[0];
+    }
+
+    public int poll() {
+        int top = heap[0];
+        pos[top] = ABSENT;
+        size--;
+        if (size > 0) {
+            int last = heap[size];
+            heap[0] = last;
+            pos[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int i) {
+        int id = heap[i];
+        int key = keys[id];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            int pid = heap[parent];
+            if (keys[pid] <= key) {
+                break;
+            }
+            heap[i] = pid;
+            pos[pid] = i;
+            i = parent;
+        }
+        heap[i] = id;
+        pos[id] = i;
+    }
+
+    private void siftDown(int i) {
+        int id = heap[i];
+        int key = keys[id];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && keys[heap[right]] < keys[heap[child]]) {
+                child = right;
+            }
+            int cid = heap[child];
+            if (key <= keys[cid]) {
+                break;
+            }
+            heap[i] = cid;
+            pos[cid] = i;
+            i = child;
+        }
+        heap[i] = id;
+        pos[id] = i;
+    }
+}
@@ -0,0 +1,323 @@
+package com.ron.phys;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Pending and active jobs for a World. Jobs come out in priority order (higher first, then
+ * first added); among MoveToJobs of the top priority, an actor gets the one nearest to it,
+ * found through that priority's grid of destination buckets instead of a scan of every job.
+ */
+public class JobScheduler {
+    public static final int DEFAULT_BUCKET_SIZE = 16;
+
+    private static final Comparator<Job> ORDER = new Comparator<Job>() {
+        @Override
+        public int compare(Job a, Job b) {
+            if (a.getPriority() != b.getPriority()) {
+                return (a.getPriority() > b.getPriority()) ? -1 : 1;
+            }
+            return Long.compare(a.seq, b.seq);
+        }
+    };
+
+    private final int bucketSize;
+    private final int bucketsX;
+    private final int bucketsY;
+
+    // Claimed jobs are left in the queue and skipped when they reach the head
+    private final PriorityQueue<Job> pending = new PriorityQueue<Job>(64, ORDER);
+    private final Set<Job> active = new LinkedHashSet<Job>();
+    // One grid per priority that has pending MoveToJobs
+    private final Map<Integer, Grid> grids = new HashMap<Integer, Grid>();
+    private int pendingCount;
+    private long nextSeq;
+
+    public JobScheduler(int width, int height) {
+        this(width, height, DEFAULT_BUCKET_SIZE);
+    }
+
+    public JobScheduler(int width, int height, int bucketSize) {
+        this.bucketSize = bucketSize;
+        this.bucketsX = (width + bucketSize - 1) / bucketSize;
+        this.bucketsY = (height + bucketSize - 1) / bucketSize;
+    }
+
+    public void add(Job job) {
+        if (job.state != Job.NEW) {
+            throw new IllegalStateException("Job already scheduled: " + job);
+        }
+        enqueue(job, nextSeq++);
+    }
+
+    private void enqueue(Job job, long seq) {
+        job.seq = seq;
+        job.state = Job.PENDING;
+        pending.add(job);
+        pendingCount++;
+
+        if (job instanceof MoveToJob) {
+            MoveToJob m = (MoveToJob) job;
+            Grid grid = grids.get(job.getPriority());
+            if (grid == null) {
+                grid = new Grid();
+                grids.put(job.getPriority(), grid);
+            }
+            grid.add(m, bucketKey(m));
+        }
+    }
+
+    /**
+     * Puts back a job saved in a snapshot, keeping its sequence number and its state:
+     * PENDING jobs are queued again, ACTIVE ones are marked as handed out.
+     */
+    void restore(Job job, long seq, byte state) {
+        if (job.state != Job.NEW) {
+            throw new IllegalStateException("Job already scheduled: " + job);
+        }
+        if ((state != Job.PENDING) && (state != Job.ACTIVE)) {
+            throw new IllegalArgumentException("Cannot restore a job in state " + state);
+        }
+        enqueue(job, seq);
+        nextSeq = Math.max(nextSeq, seq + 1);
+        if (state == Job.ACTIVE) {
+            claim(job);
+        }
+    }
+
+    long getNextSeq() {
+        return nextSeq;
+    }
+
+    void setNextSeq(long nextSeq) {
+        this.nextSeq = nextSeq;
+    }
+
+    /**
+     * Claims the best pending job for the actor, or returns null if there is none.
+     */
+    public Job assign(Actor a) {
+        Job top = peekPending();
+        if (top == null) {
+            return null;
+        }
+
+        Job job = null;
+        Grid grid = grids.get(top.getPriority());
+        if (grid != null) {
+            job = nearest(grid, a.getX(), a.getY());
+        }
+        if (job == null) {
+            job = top;
+        }
+
+        claim(job);
+        return job;
+    }
+
+    public void completed(Job job) {
+        if (!active.remove(job)) {
+            throw new IllegalStateException("Job is not active: " + job);
+        }
+        job.state = Job.DONE;
+    }
+
+    public boolean isActive(Job job) {
+        return job.state == Job.ACTIVE;
+    }
+
+    public int pendingSize() {
+        return pendingCount;
+    }
+
+    public int activeSize() {
+        return active.size();
+    }
+
+    /**
+     * Pending jobs in the order they would be handed out, ignoring actor positions.
+     */
+    public List<Job> pendingJobs() {
+        List<Job> jobs = new ArrayList<Job>(pendingCount);
+        for (Job job : pending) {
+            if (job.state == Job.PENDING) {
+                jobs.add(job);
+            }
+        }
+        Collections.sort(jobs, ORDER);
+        return jobs;
+    }
+
+    public List<Job> activeJobs() {
+        return new ArrayList<Job>(active);
+    }
+
+    private Job peekPending() {
+        Job top = pending.peek();
+        while (top != null && top.state != Job.PENDING) {
+            pending.poll();
+            top = pending.peek();
+        }
+        return top;
+    }
+
+    private void claim(Job job) {
+        job.state = Job.ACTIVE;
+        pendingCount--;
+        active.add(job);
+
+        if (job instanceof MoveToJob) {
+            MoveToJob m = (MoveToJob) job;
+            Grid grid = grids.get(job.getPriority());
+            grid.remove(m, bucketKey(m));
+            if (grid.size == 0) {
+                grids.remove(job.getPriority());
+            }
+        }
+    }
+
+    /**
+     * Searches rings of buckets outwards from (x, y) for the closest MoveToJob in grid,
+     * stopping once no unvisited ring can hold anything closer. Once the rings would cover
+     * more buckets than hold jobs, scanning those buckets is cheaper and it does that instead.
+     */
+    private MoveToJob nearest(Grid grid, int x, int y) {
+        int bx = x / bucketSize;
+        int by = y / bucketSize;
+        int maxRing = Math.max(Math.max(bx, bucketsX - 1 - bx), Math.max(by, bucketsY - 1 - by));
+
+        MoveToJob best = null;
+        int bestDist = Integer.MAX_VALUE;
+        int probes = 0;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // Anything in this ring is at least this far away
+            if ((best != null) && ((ring - 1) * bucketSize + 1 > bestDist)) {
+                break;
+            }
+            probes += (ring == 0) ? 1 : 8 * ring;
+            if (probes > grid.buckets.size()) {
+                return closest(grid, x, y);
+            }
+            for (int dy = -ring; dy <= ring; dy++) {
+                boolean edgeRow = (dy == -ring) || (dy == ring);
+                for (int dx = -ring; dx <= ring; dx += edgeRow ? 1 : 2 * ring) {
+                    List<MoveToJob> bucket = grid.get(Loc.pack(bx + dx, by + dy));
+                    if (bucket != null) {
+                        for (MoveToJob m : bucket) {
+                            int d = distance(m, x, y);
+                            if (closer(m, d, best, bestDist)) {
+                                best = m;
+                                bestDist = d;
+                            }
+                        }
+                    }
+                    if (ring == 0) {
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    // Every job in grid, bucket by bucket
+    private static MoveToJob closest(Grid grid, int x, int y) {
+        MoveToJob best = null;
+        int bestDist = Integer.MAX_VALUE;
+        for (Bucket bucket : grid.buckets) {
+            for (MoveToJob m : bucket.jobs) {
+                int d = distance(m, x, y);
+                if (closer(m, d, best, bestDist)) {
+                    best = m;
+                    bestDist = d;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int distance(MoveToJob m, int x, int y) {
+        return Math.max(Math.abs(m.getDestX() - x), Math.abs(m.getDestY() - y));
+    }
+
+    // Nearer wins, then whichever was added first
+    private static boolean closer(MoveToJob m, int d, MoveToJob best, int bestDist) {
+        return (d < bestDist) || ((d == bestDist) && (m.seq < best.seq));
+    }
+
+    private long bucketKey(MoveToJob m) {
+        return Loc.pack(m.getDestX() / bucketSize, m.getDestY() / bucketSize);
+    }
+
+    @Override
+    public String toString() {
+        return "JobScheduler{" +
+                "pending=" + pendingCount +
+                ", active=" + active.size() +
+                '}';
+    }
+
+    /**
+     * Pending MoveToJobs of one priority by destination bucket. Only non-empty buckets exist;
+     * they sit in a list, found by key through a map of list positions.
+     */
+    private static final class Grid {
+        private final LongIntHashMap slots = new LongIntHashMap();
+        private final List<Bucket> buckets = new ArrayList<Bucket>();
+        private int size;
+
+        List<MoveToJob> get(long key) {
+            int i = slots.get(key, -1);
+            return (i < 0) ? null : buckets.get(i).jobs;
+        }
+
+        void add(MoveToJob m, long key) {
+            int i = slots.get(key, -1);
+            if (i < 0) {
+                i = buckets.size();
+                buckets.add(new Bucket(key));
+                slots.put(key, i);
+            }
+            List<MoveToJob> jobs = buckets.get(i).jobs;
+            m.bucketIndex = jobs.size();
+            jobs.add(m);
+            size++;
+        }
+
+        void remove(MoveToJob m, long key) {
+            int i = slots.get(key, -1);
+            List<MoveToJob> jobs = buckets.get(i).jobs;
+            // Swap-remove: the last job takes m's place, and likewise the last bucket
+            MoveToJob last = jobs.remove(jobs.size() - 1);
+            if (last != m) {
+                last.bucketIndex = m.bucketIndex;
+                jobs.set(m.bucketIndex, last);
+            }
+            size--;
+            if (jobs.isEmpty()) {
+                slots.remove(key);
+                Bucket moved = buckets.remove(buckets.size() - 1);
+                if (i < buckets.size()) {
+                    buckets.set(i, moved);
+                    slots.put(moved.key, i);
+                }
+            }
+        }
+    }
+
+    private static final class Bucket {
+        final long key;
+        final List<MoveToJob> jobs = new ArrayList<MoveToJob>();
+
+        Bucket(long key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.ron.phys;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Jump Point Search over a uniform-cost Terrain. Only jump points are pushed on the open set;
+ * the straight and diagonal runs between them are filled back in when the path is built, so
+ * the result has the same shape and cost as AStar.solve.
+ */
+public class JumpPointSearch {
+    private static final int NONE = SearchContext.NONE;
+
+    private final Terrain terrain;
+    private final int terrainX;
+    private final int terrainY;
+
+    private final int[] successors = new int[8];
+    private SearchContext ctx;
+
+    private int goalX;
+    private int goalY;
+
+    public JumpPointSearch(Terrain terrain) {
+        this.terrain = terrain;
+        this.terrainX = terrain.getWidth();
+        this.terrainY = terrain.getHeight();
+    }
+
+    public List<Loc> solve(Loc start, Loc end) {
+        int startCell = cell(start.getX(), start.getY());
+        int endCell = cell(end.getX(), end.getY());
+        goalX = end.getX();
+        goalY = end.getY();
+
+        ctx = SearchContext.get(terrainX * terrainY);
+        ctx.begin();
+        ctx.set(startCell, 0, NONE);
+        IndexedMinHeap openSet = ctx.openSet();
+        openSet.insertOrDecrease(startCell, estimate(startCell));
+
+        while (!openSet.isEmpty()) {
+            int current = openSet.poll();
+            if (current == endCell) {
+                return reconstructPath(current);
+            }
+
+            int cx = current % terrainX;
+            int cy = current / terrainX;
+            int count = prunedDirections(current, cx, cy);
+            for (int i = 0; i < count; i++) {
+                int jumpPoint = jump(cx, cy, successors[i] >> 2, successors[i] & 3);
+                if (jumpPoint == NONE) {
+                    continue;
+                }
+
+                int tentative_gScore = ctx.gScore(current) + AStar.octile(jumpPoint % terrainX - cx, jumpPoint / terrainX - cy);
+                if (tentative_gScore < ctx.gScore(jumpPoint)) {
+                    ctx.set(jumpPoint, tentative_gScore, current);
+                    openSet.insertOrDecrease(jumpPoint, tentative_gScore + estimate(jumpPoint));
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Fills successors with the directions worth searching from (x, y), given the direction
+     * we arrived from. Directions are stored as ((dx + 1) << 2) | (dy + 1).
+     */
+    private int prunedDirections(int current, int x, int y) {
+        int parent = ctx.cameFrom(current);
+        int n = 0;
+
+        if (parent == NONE) {
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    if ((dx != 0) || (dy != 0)) {
+                        successors[n++] = direction(dx, dy);
+                    }
+                }
+            }
+            return n;
+        }
+
+        int dx = Integer.signum(x - parent % terrainX);
+        int dy = Integer.signum(y - parent / terrainX);
+
+        if ((dx != 0) && (dy != 0)) {
+            successors[n++] = direction(0, dy);
+            successors[n++] = direction(dx, 0);
+            successors[n++] = direction(dx, dy);
+            if (!passable(x - dx, y)) {
+                successors[n++] = direction(-dx, dy);
+            }
+            if (!passable(x, y - dy)) {
+                successors[n++] = direction(dx, -dy);
+            }
+        } else if (dx != 0) {
+            successors[n++] = direction(dx, 0);
+            if (!passable(x, y + 1)) {
+                successors[n++] = direction(dx, 1);
+            }
+            if (!passable(x, y - 1)) {
+                successors[n++] = direction(dx, -1);
+            }
+        } else {
+            successors[n++] = direction(0, dy);
+            if (!passable(x + 1, y)) {
+                successors[n++] = direction(1, dy);
+            }
+            if (!passable(x - 1, y)) {
+                successors[n++] = direction(-1, dy);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Steps from (x, y) in the encoded direction until reaching the goal, a cell with a forced
+     * neighbour, or an obstacle. Returns the jump point's cell index or NONE.
+     */
+    private int jump(int x, int y, int encodedDx, int encodedDy) {
+        int dx = encodedDx - 1;
+        int dy = encodedDy - 1;
+
+        if ((dx == 0) || (dy == 0)) {
+            return jumpStraight(x, y, dx, dy);
+        }
+
+        while (true) {
+            x += dx;
+            y += dy;
+            if (!passable(x, y)) {
+                return NONE;
+            }
+            if ((x == goalX) && (y == goalY)) {
+                return cell(x, y);
+            }
+            if ((passable(x - dx, y + dy) && !passable(x - dx, y))
+                    || (passable(x + dx, y - dy) && !passable(x, y - dy))) {
+                return cell(x, y);
+            }
+            // A diagonal step is a jump point if either straight component leads somewhere
+            if ((jumpStraight(x, y, dx, 0) != NONE) || (jumpStraight(x, y, 0, dy) != NONE)) {
+                return cell(x, y);
+            }
+        }
+    }
+
+    private int jumpStraight(int x, int y, int dx, int dy) {
+        while (true) {
+            x += dx;
+            y += dy;
+            if (!passable(x, y)) {
+                return NONE;
+            }
+            if ((x == goalX) && (y == goalY)) {
+                return cell(x, y);
+            }
+            if (dx != 0) {
+                if ((passable(x + dx, y + 1) && !passable(x, y + 1))
+                        || (passable(x + dx, y - 1) && !passable(x, y - 1))) {
+                    return cell(x, y);
+                }
+            } else {
+                if ((passable(x + 1, y + dy) && !passable(x + 1, y))
+                        || (passable(x - 1, y + dy) && !passable(x - 1, y))) {
+                    return cell(x, y);
+                }
+            }
+        }
+    }
+
+    private List<Loc> reconstructPath(int current) {
+        List<Loc> path = new ArrayList<>();
+        path.add(new Loc(current % terrainX, current / terrainX));
+
+        while (ctx.cameFrom(current) != NONE) {
+            int parent = ctx.cameFrom(current);
+            int x = current % terrainX;
+            int y = current / terrainX;
+            int px = parent % terrainX;
+            int py = parent / terrainX;
+            int dx = Integer.signum(px - x);
+            int dy = Integer.signum(py - y);
+
+            // Jump points are always joined by a straight or diagonal run
+            while ((x != px) || (y != py)) {
+                x += dx;
+                y += dy;
+                path.add(new Loc(x, y));
+            }
+            current = parent;
+        }
+
+        Collections.reverse(path);
+        return path;
+    }
+
+    private boolean passable(int x, int y) {
+        return terrain.isPassable(x, y);
+    }
+
+    private int estimate(int c) {
+        return AStar.octile(goalX - c % terrainX, goalY - c / terrainX);
+    }
+
+    private int cell(int x, int y) {
+        return y * terrainX + x;
+    }
+
+    private static int direction(int dx, int dy) {
+        return ((dx + 1) << 2) | (dy + 1);
+    }
+}
@@ -0,0 +1,229 @@
+package com.ron.phys;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Process-wide counters and histograms for pathfinding and ticking. Recording costs a few
+ * atomic adds and never allocates; with metrics disabled (the default) the instrumented code
+ * skips even the clock reads. Read them with snapshot(), or over JMX after registerMBean().
+ */
+public final class Metrics {
+    public static final String OBJECT_NAME = "com.ron.phys:type=Metrics";
+
+    private static volatile boolean enabled;
+
+    static final Histogram ASTAR_NANOS = new Histogram("astar.nanos");
+    static final Histogram ASTAR_EXPANDED = new Histogram("astar.expanded");
+    static final Histogram ASTAR_PEAK_OPEN = new Histogram("astar.peakOpen");
+    static final Histogram ASTAR_PATH_LENGTH = new Histogram("astar.pathLength");
+    static final Histogram TICK_NANOS = new Histogram("tick.nanos");
+    static final Histogram TICK_CLAIM_NANOS = new Histogram("tick.claimNanos");
+    static final Histogram TICK_UPDATE_NANOS = new Histogram("tick.updateNanos");
+    static final Histogram TICK_MERGE_NANOS = new Histogram("tick.mergeNanos");
+
+    private static final Histogram[] HISTOGRAMS = {
+            ASTAR_NANOS, ASTAR_EXPANDED, ASTAR_PEAK_OPEN, ASTAR_PATH_LENGTH,
+            TICK_NANOS, TICK_CLAIM_NANOS, TICK_UPDATE_NANOS, TICK_MERGE_NANOS};
+
+    private static final AtomicLong solves = new AtomicLong();
+    private static final AtomicLong failures = new AtomicLong();
+    private static final AtomicLong ticks = new AtomicLong();
+    private static volatile int pendingJobs;
+    private static volatile int activeJobs;
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * One A* search. pathLength is -1 if no path was found.
+     */
+    static void recordSolve(int expanded, int peakOpen, int pathLength, long nanos) {
+        solves.incrementAndGet();
+        ASTAR_NANOS.record(nanos);
+        ASTAR_EXPANDED.record(expanded);
+        ASTAR_PEAK_OPEN.record(peakOpen);
+        if (pathLength < 0) {
+            failures.incrementAndGet();
+        } else {
+            ASTAR_PATH_LENGTH.record(pathLength);
+        }
+    }
+
+    /**
+     * One World tick, as nanoTime readings at its start and at the end of each phase.
+     */
+    static void recordTick(long start, long claimed, long updated, long merged, int pending, int active) {
+        ticks.incrementAndGet();
+        TICK_CLAIM_NANOS.record(claimed - start);
+        TICK_UPDATE_NANOS.record(updated - claimed);
+        TICK_MERGE_NANOS.record(merged - updated);
+        TICK_NANOS.record(merged - start);
+        pendingJobs = pending;
+        activeJobs = active;
+    }
+
+    /**
+     * Copies out every counter and histogram, optionally zeroing them so the next snapshot
+     * covers only the interval in between. Meant to be called every few seconds, not per tick.
+     */
+    public static Snapshot snapshot(boolean reset) {
+        Map<String, Histogram.Snapshot> histograms = new LinkedHashMap<String, Histogram.Snapshot>();
+        for (Histogram h : HISTOGRAMS) {
+            histograms.put(h.getName(), h.snapshot());
+            if (reset) {
+                h.reset();
+            }
+        }
+        return new Snapshot(histograms,
+                reset ? solves.getAndSet(0) : solves.get(),
+                reset ? failures.getAndSet(0) : failures.get(),
+                reset ? ticks.getAndSet(0) : ticks.get(),
+                pendingJobs, activeJobs);
+    }
+
+    public static void reset() {
+        snapshot(true);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server under OBJECT_NAME. Registering
+     * twice is harmless.
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new StandardMBean(new Bean(), MetricsMXBean.class, true), name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register " + OBJECT_NAME, e);
+        }
+    }
+
+    public static class Snapshot {
+        private final Map<String, Histogram.Snapshot> histograms;
+        private final long solves;
+        private final long failures;
+        private final long ticks;
+        private final int pendingJobs;
+        private final int activeJobs;
+
+        Snapshot(Map<String, Histogram.Snapshot> histograms, long solves, long failures, long ticks,
+                 int pendingJobs, int activeJobs) {
+            this.histograms = histograms;
+            this.solves = solves;
+            this.failures = failures;
+            this.ticks = ticks;
+            this.pendingJobs = pendingJobs;
+            this.activeJobs = activeJobs;
+        }
+
+        public Histogram.Snapshot get(String name) {
+            return histograms.get(name);
+        }
+
+        public Map<String, Histogram.Snapshot> getHistograms() {
+            return histograms;
+        }
+
+        public long getSolves() {
+            return solves;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getTicks() {
+            return ticks;
+        }
+
+        /**
+         * Pending jobs at the end of the last recorded tick.
+         */
+        public int getPendingJobs() {
+            return pendingJobs;
+        }
+
+        /**
+         * Active jobs at the end of the last recorded tick.
+         */
+        public int getActiveJobs() {
+            return activeJobs;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("solves=%d failures=%d ticks=%d pending=%d active=%d%n",
+                    solves, failures, ticks, pendingJobs, activeJobs));
+            for (Histogram.Snapshot h : histograms.values()) {
+                sb.append(h).append(String.format("%n"));
+            }
+            return sb.toString();
+        }
+    }
+
+    private static class Bean implements MetricsMXBean {
+        @Override
+        public boolean isEnabled() {
+            return Metrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            Metrics.setEnabled(enabled);
+        }
+
+        @Override
+        public long getSolves() {
+            return solves.get();
+        }
+
+        @Override
+        public long getFailures() {
+            return failures.get();
+        }
+
+        @Override
+        public long getTicks() {
+            return ticks.get();
+        }
+
+        @Override
+        public int getPendingJobs() {
+            return pendingJobs;
+        }
+
+        @Override
+        public int getActiveJobs() {
+            return activeJobs;
+        }
+
+        @Override
+        public Map<String, Histogram.Snapshot> getHistograms() {
+            return snapshot(false).getHistograms();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.ron.phys;
+
+import java.util.Map;
+
+/**
+ * JMX view of Metrics. Histograms show up as a table keyed by name, one row of count, mean,
+ * percentiles and max per histogram.
+ */
+public interface MetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getSolves();
+
+    long getFailures();
+
+    long getTicks();
+
+    int getPendingJobs();
+
+    int getActiveJobs();
+
+    Map<String, Histogram.Snapshot> getHistograms();
+
+    void reset();
+}
@@ -0,0 +1,376 @@
+package com.ron.phys;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Mutual gravitational acceleration between point masses. EXACT sums every pair; BARNES_HUT
+ * builds a quadtree and treats any cell that looks smaller than theta from a body as a single
+ * mass at its centre of mass. AUTO picks EXACT up to EXACT_LIMIT bodies.
+ *
+ * Each body's acceleration is summed in a fixed order, so parallel runs give the same bits as
+ * serial ones.
+ */
+public class NBodyGravity {
+    public enum Mode { EXACT, BARNES_HUT, AUTO }
+
+    public static final double G = 6.674e-11;
+    public static final int EXACT_LIMIT = 256;
+
+    private static final int LEAF_SIZE = 4;
+    private static final int MAX_DEPTH = 48;
+    private static final int PARALLEL_BODIES = 512;   // bodies per task when evaluating forces
+    private static final int PARALLEL_BUILD = 4096;   // subtrees smaller than this are built inline
+
+    private Mode mode = Mode.AUTO;
+    private double theta = 0.5;
+    private double softening;
+    private double g = G;
+    private boolean parallel;
+
+    // Scratch kept between calls
+    private int[] order = new int[0];
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public double getTheta() {
+        return theta;
+    }
+
+    /**
+     * Opening angle: a cell of side s at distance d is approximated when s / d < theta.
+     * 0 opens every cell, which makes Barnes-Hut exact but slower than EXACT.
+     */
+    public void setTheta(double theta) {
+        if (theta < 0) {
+            throw new IllegalArgumentException("theta must not be negative: " + theta);
+        }
+        this.theta = theta;
+    }
+
+    public double getSoftening() {
+        return softening;
+    }
+
+    /**
+     * Plummer softening length; keeps close encounters from producing huge accelerations.
+     */
+    public void setSoftening(double softening) {
+        this.softening = softening;
+    }
+
+    public double getG() {
+        return g;
+    }
+
+    public void setG(double g) {
+        this.g = g;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Writes the acceleration of each of the first n bodies into ax and ay.
+     */
+    public void accelerations(double[] x, double[] y, double[] mass, int n, double[] ax, double[] ay) {
+        boolean exact = (mode == Mode.EXACT) || ((mode == Mode.AUTO) && (n <= EXACT_LIMIT));
+        Node root = exact ? null : buildTree(x, y, mass, n);
+        Evaluate task = new Evaluate(this, root, x, y, mass, ax, ay, 0, n, n);
+        if (parallel && n > PARALLEL_BODIES) {
+            Workers.pool().invoke(task);
+        } else {
+            task.compute();
+        }
+    }
+
+    private Node buildTree(double[] x, double[] y, double[] mass, int n) {
+        if (order.length < n) {
+            order = new int[n];
+        }
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        if (n == 0) {
+            return null;
+        }
+        // Pad the square slightly so the largest coordinates still fall inside it
+        double size = Math.max(maxX - minX, maxY - minY);
+        size = (size == 0) ? 1 : size * (1 + 1e-9);
+
+        Node root = new Node(minX, minY, size);
+        Build build = new Build(this, root, x, y, mass, 0, n, 0);
+        if (parallel && n > PARALLEL_BUILD) {
+            Workers.pool().invoke(build);
+        } else {
+            build.compute();
+        }
+        return root;
+    }
+
+    private void accumulate(Node root, double[] x, double[] y, double[] mass, int n, int i,
+                            double[] ax, double[] ay, double[] sum) {
+        double xi = x[i];
+        double yi = y[i];
+        double eps2 = softening * softening;
+        double sx = 0;
+        double sy = 0;
+        if (root == null) {
+            for (int j = 0; j < n; j++) {
+                if (j != i) {
+                    double dx = x[j] - xi;
+                    double dy = y[j] - yi;
+                    double d2 = dx * dx + dy * dy + eps2;
+                    if (d2 > 0) {
+                        double f = mass[j] / (d2 * Math.sqrt(d2));
+                        sx += f * dx;
+                        sy += f * dy;
+                    }
+                }
+            }
+        } else {
+            sum[0] = 0;
+            sum[1] = 0;
+            walk(root, x, y, mass, i, xi, yi, eps2, theta * theta, sum);
+            sx = sum[0];
+            sy = sum[1];
+        }
+        ax[i] = g * sx;
+        ay[i] = g * sy;
+    }
+
+    private void walk(Node node, double[] x, double[] y, double[] mass, int i, double xi, double yi,
+                      double eps2, double theta2, double[] sum) {
+        if (node.mass == 0) {
+            return;
+        }
+        if (node.children == null) {
+            for (int k = node.from; k < node.to; k++) {
+                int j = order[k];
+                if (j != i) {
+                    add(x[j] - xi, y[j] - yi, mass[j], eps2, sum);
+                }
+            }
+            return;
+        }
+
+        double dx = node.comX - xi;
+        double dy = node.comY - yi;
+        double d2 = dx * dx + dy * dy;
+        if (!node.contains(xi, yi) && (node.size * node.size < theta2 * d2)) {
+            add(dx, dy, node.mass, eps2, sum);
+            return;
+        }
+        for (Node child : node.children) {
+            if (child != null) {
+                walk(child, x, y, mass, i, xi, yi, eps2, theta2, sum);
+            }
+        }
+    }
+
+    private static void add(double dx, double dy, double m, double eps2, double[] sum) {
+        double d2 = dx * dx + dy * dy + eps2;
+        if (d2 > 0) {
+            double f = m / (d2 * Math.sqrt(d2));
+            sum[0] += f * dx;
+            sum[1] += f * dy;
+        }
+    }
+
+    /**
+     * Reorders order[from, to) so bodies with a coordinate below the split come first;
+     * returns the index of the first body at or above it.
+     */
+    private int partition(double[] c, double split, int from, int to) {
+        int lo = from;
+        int hi = to - 1;
+        while (lo <= hi) {
+            if (c[order[lo]] < split) {
+                lo++;
+            } else {
+                int t = order[lo];
+                order[lo] = order[hi];
+                order[hi] = t;
+                hi--;
+            }
+        }
+        return lo;
+    }
+
+    static final class Node {
+        final double x;
+        final double y;
+        final double size;
+        double mass;
+        double comX;
+        double comY;
+        Node[] children;    // null for leaves, which hold order[from, to)
+        int from;
+        int to;
+
+        Node(double x, double y, double size) {
+            this.x = x;
+            this.y = y;
+            this.size = size;
+        }
+
+        boolean contains(double px, double py) {
+            return (px >= x) && (px < x + size) && (py >= y) && (py < y + size);
+        }
+    }
+
+    private static final class Build extends RecursiveAction {
+        private final NBodyGravity owner;
+        private final Node node;
+        private final double[] x;
+        private final double[] y;
+        private final double[] mass;
+        private final int from;
+        private final int to;
+        private final int depth;
+
+        Build(NBodyGravity owner, Node node, double[] x, double[] y, double[] mass, int from, int to, int depth) {
+            this.owner = owner;
+            this.node = node;
+            this.x = x;
+            this.y = y;
+            this.mass = mass;
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            int[] order = owner.order;
+            if ((to - from <= LEAF_SIZE) || (depth >= MAX_DEPTH)) {
+                node.from = from;
+                node.to = to;
+                double m = 0;
+                double mx = 0;
+                double my = 0;
+                for (int k = from; k < to; k++) {
+                    int j = order[k];
+                    m += mass[j];
+                    mx += mass[j] * x[j];
+                    my += mass[j] * y[j];
+                }
+                setMass(m, mx, my);
+                return;
+            }
+
+            // Quadrants 0..3: (low x, low y), (high x, low y), (low x, high y), (high x, high y)
+            double half = node.size / 2;
+            int midY = owner.partition(y, node.y + half, from, to);
+            int midXLow = owner.partition(x, node.x + half, from, midY);
+            int midXHigh = owner.partition(x, node.x + half, midY, to);
+            int[] bounds = { from, midXLow, midY, midXHigh, to };
+
+            node.children = new Node[4];
+            Build[] tasks = new Build[4];
+            int forked = 0;
+            for (int q = 0; q < 4; q++) {
+                if (bounds[q] == bounds[q + 1]) {
+                    continue;
+                }
+                Node child = new Node(node.x + (((q & 1) != 0) ? half : 0), node.y + (((q & 2) != 0) ? half : 0), half);
+                node.children[q] = child;
+                tasks[q] = new Build(owner, child, x, y, mass, bounds[q], bounds[q + 1], depth + 1);
+                if (owner.parallel && (bounds[q + 1] - bounds[q] > PARALLEL_BUILD)) {
+                    tasks[q].fork();
+                    forked |= 1 << q;
+                } else {
+                    tasks[q].compute();
+                }
+            }
+
+            double m = 0;
+            double mx = 0;
+            double my = 0;
+            for (int q = 0; q < 4; q++) {
+                if (tasks[q] == null) {
+                    continue;
+                }
+                if ((forked & (1 << q)) != 0) {
+                    tasks[q].join();
+                }
+                Node child = node.children[q];
+                m += child.mass;
+                mx += child.mass * child.comX;
+                my += child.mass * child.comY;
+            }
+            setMass(m, mx, my);
+        }
+
+        private void setMass(double m, double mx, double my) {
+            node.mass = m;
+            if (m != 0) {
+                node.comX = mx / m;
+                node.comY = my / m;
+            } else {
+                node.comX = node.x + node.size / 2;
+                node.comY = node.y + node.size / 2;
+            }
+        }
+    }
+
+    private static final class Evaluate extends RecursiveAction {
+        private final NBodyGravity owner;
+        private final Node root;
+        private final double[] x;
+        private final double[] y;
+        private final double[] mass;
+        private final double[] ax;
+        private final double[] ay;
+        private final int from;
+        private final int to;
+        private final int n;
+
+        Evaluate(NBodyGravity owner, Node root, double[] x, double[] y, double[] mass,
+                 double[] ax, double[] ay, int from, int to, int n) {
+            this.owner = owner;
+            this.root = root;
+            this.x = x;
+            this.y = y;
+            this.mass = mass;
+            this.ax = ax;
+            this.ay = ay;
+            this.from = from;
+            this.to = to;
+            this.n = n;
+        }
+
+        @Override
+        protected void compute() {
+            if (!owner.parallel || (to - from <= PARALLEL_BODIES)) {
+                // One tree-walk accumulator for all the bodies this task evaluates
+                double[] sum = new double[2];
+                for (int i = from; i < to; i++) {
+                    owner.accumulate(root, x, y, mass, n, i, ax, ay, sum);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Evaluate(owner, root, x, y, mass, ax, ay, from, mid, n),
+                    new Evaluate(owner, root, x, y, mass, ax, ay, mid, to, n));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.ron.phys;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LRU cache of A* results keyed by (start, goal).
+ * The whole cache is dropped as soon as the terrain's modification counter moves.
+ */
+public class PathCache {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Terrain terrain;
+    private final AStar aStar;
+    private final int capacity;
+    private final int width;
+    private final LinkedHashMap<Long, List<Loc>> paths;
+
+    private int terrainVersion;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public PathCache(Terrain terrain, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.terrain = terrain;
+        this.aStar = new AStar(terrain);
+        this.capacity = capacity;
+        this.width = terrain.getWidth();
+        this.terrainVersion = terrain.getModCount();
+        this.paths = new LinkedHashMap<Long, List<Loc>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, List<Loc>> eldest) {
+                if (size() > PathCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the path from start to goal, or null if there is none. The returned list is shared
+     * between callers and must not be modified.
+     */
+    public synchronized List<Loc> get(Loc start, Loc goal) {
+        int version = terrain.getModCount();
+        if (version != terrainVersion) {
+            invalidate();
+            terrainVersion = version;
+        }
+
+        Long key = key(start, goal);
+        List<Loc> path = paths.get(key);
+        if (path != null || paths.containsKey(key)) {
+            hits++;
+            return path;
+        }
+
+        misses++;
+        path = aStar.solve(start, goal);
+        if (path != null) {
+            path = Collections.unmodifiableList(path);
+        }
+        paths.put(key, path);
+        return path;
+    }
+
+    public synchronized void invalidate() {
+        if (!paths.isEmpty()) {
+            paths.clear();
+            invalidations++;
+        }
+    }
+
+    public synchronized int size() {
+        return paths.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    private Long key(Loc start, Loc goal) {
+        long s = start.getY() * width + start.getX();
+        long g = goal.getY() * width + goal.getX();
+        return (s << 32) | g;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PathCache{" +
+                "size=" + paths.size() +
+                ", capacity=" + capacity +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                ", invalidations=" + invalidations +
+                '}';
+    }
+}
@@ -1,5 +1,6 @@
 package com.ron.phys;
 
+import java.util.ArrayList;
 import java.util.List;
 
 class Pos {
@@ -19,6 +20,11 @@ class Pos {
         return y;
     }
 
+    void set(double x, double y) {
+        this.x = x;
+        this.y = y;
+    }
+
     @Override
     public String toString() {
         return "Pos{" +
@@ -34,6 +40,14 @@ class Velocity {
     private double magnitude;
 
     public Velocity(double x, double y) {
+        set(x, y);
+    }
+
+    Velocity(Velocity v) {
+        set(v);
+    }
+
+    void set(double x, double y) {
         if ((x == 0) && (y == 0)) {
             x = y = 0;
         }
@@ -42,9 +56,17 @@ class Velocity {
         if (this.magnitude != 0) {
             this.x = x / this.magnitude;
             this.y = y / this.magnitude;
+        } else {
+            this.x = this.y = 0;
         }
     }
 
+    void set(Velocity v) {
+        this.x = v.x;
+        this.y = v.y;
+        this.magnitude = v.magnitude;
+    }
+
     @Override
     public String toString() {
         return "Velocity{" +
@@ -69,33 +91,95 @@ class Velocity {
     public static Velocity AT_REST = new Velocity(0, 0);
 }
 
+/**
+ * Something with mass that moves. An entity owns its Pos and Velocity: it copies the ones it is
+ * given, moves by updating them in place, and hands out copies, so a Pos read earlier keeps
+ * the position it was read at. Steps read the coordinates through getX() and friends instead,
+ * which copy nothing.
+ */
 class Entity {
     String      label;
-    Pos         pos;
-    Velocity    vel;
+    Pos         pos;                // owned, updated in place
+    Velocity    vel;                // owned, updated in place
     double      mass;
+    double      radius;             // collision circle, 0 for a point
+    SpatialIndex<Entity> index;     // kept up to date by moveTo while the entity is in a Simulation
 
     public Entity(String label, double mass, Pos pos, Velocity vel) {
         this.label = label;
         this.mass = mass;
-        this.pos = pos;
-        this.vel = vel;
+        this.pos = (pos == null) ? null : new Pos(pos.getX(), pos.getY());
+        this.vel = (vel == null) ? null : new Velocity(vel);
     }
 
     public Pos getPos() {
-        return pos;
+        return new Pos(pos.getX(), pos.getY());
+    }
+
+    double getX() {
+        return pos.getX();
+    }
+
+    double getY() {
+        return pos.getY();
     }
 
     public void setPos(Pos pos) {
-        this.pos = pos;
+        moveTo(pos.getX(), pos.getY());
+    }
+
+    void moveTo(double x, double y) {
+        if (pos == null) {
+            pos = new Pos(x, y);
+        } else {
+            pos.set(x, y);
+        }
+        if (index != null) {
+            index.put(this, x, y);
+        }
     }
 
     public Velocity getVel() {
-        return vel;
+        return new Velocity(vel);
+    }
+
+    double getVx() {
+        return vel.getX() * vel.getMagnitude();
+    }
+
+    double getVy() {
+        return vel.getY() * vel.getMagnitude();
     }
 
     public void setVel(Velocity vel) {
-        this.vel = vel;
+        if (this.vel == null) {
+            this.vel = new Velocity(vel);
+        } else {
+            this.vel.set(vel);
+        }
+    }
+
+    /**
+     * Sets the velocity from its components.
+     */
+    void setVel(double vx, double vy) {
+        if (vel == null) {
+            vel = new Velocity(vx, vy);
+        } else {
+            vel.set(vx, vy);
+        }
+    }
+
+    public double getMass() {
+        return mass;
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+
+    public void setRadius(double radius) {
+        this.radius = radius;
     }
 }
 
@@ -111,27 +195,95 @@ class Gravity extends Force {
         double velocity_delta = G * timeslice;
 
         // compute new velocity vector
-        double x = e.vel.getX() * e.vel.getMagnitude() + 0;
-        double y = e.vel.getY() * e.vel.getMagnitude() + velocity_delta;
-        e.vel = new Velocity(x, y);
+        Velocity vel = e.getVel();
+        double x = vel.getX() * vel.getMagnitude() + 0;
+        double y = vel.getY() * vel.getMagnitude() + velocity_delta;
+        vel = new Velocity(x, y);
+        e.setVel(vel);
 
         // Update position
-        double px = e.pos.getX() + timeslice * e.vel.getMagnitude() * e.vel.getX();
-        double py = e.pos.getY() + timeslice * e.vel.getMagnitude() * e.vel.getY();
-        e.pos = new Pos(px, py);
+        Pos pos = e.getPos();
+        double px = pos.getX() + timeslice * vel.getMagnitude() * vel.getX();
+        double py = pos.getY() + timeslice * vel.getMagnitude() * vel.getY();
+        e.setPos(new Pos(px, py));
 
     }
 }
 
+/**
+ * Entities pulling on each other under mutual gravity. step() copies their state into flat
+ * arrays, lets NBodyGravity work out accelerations, and writes the result back into each
+ * entity's own Pos and Velocity.
+ */
 class Simulation {
-    List<Entity> entities;
+    List<Entity> entities = new ArrayList<Entity>();
+    SpatialIndex<Entity> index;
+    NBodyGravity gravity = new NBodyGravity();
+    Collisions collisions;      // null to let entities pass through each other
+
+    private BodyStore bodies = new BodyStore();
+
+    public Simulation() {
+        this(new GridIndex<Entity>(100));
+    }
+
+    public Simulation(SpatialIndex<Entity> index) {
+        this.index = index;
+    }
 
+    public void add(Entity e) {
+        entities.add(e);
+        e.index = index;
+        index.put(e, e.getX(), e.getY());
+    }
+
+    public boolean remove(Entity e) {
+        if (!entities.remove(e)) {
+            return false;
+        }
+        index.remove(e);
+        e.index = null;
+        return true;
+    }
+
+    public SpatialIndex<Entity> getIndex() {
+        return index;
+    }
+
+    public NBodyGravity getGravity() {
+        return gravity;
+    }
+
+    public Collisions getCollisions() {
+        return collisions;
+    }
+
+    public void setCollisions(Collisions collisions) {
+        this.collisions = collisions;
+    }
+
+    public void step(double timeslice) {
+        bodies.clear();
+        for (Entity e : entities) {
+            bodies.add(e);
+        }
+        bodies.step(timeslice, gravity);
+        if (collisions != null) {
+            collisions.resolve(bodies);
+        }
+        for (int i = 0; i < entities.size(); i++) {
+            Entity e = entities.get(i);
+            e.setVel(bodies.getVx(i), bodies.getVy(i));
+            e.moveTo(bodies.getX(i), bodies.getY(i));
+        }
+    }
 }
 
 class Rock extends Entity {
     public Rock(Pos x, Velocity y)
     {
         super("Rock", 1000, x, y);
+        this.radius = 0.5;
     }
 }
 
@@ -154,16 +306,18 @@ public class Phys {
         double time = 0;
         double dt = 0.1;
         int count = 10000;
-        System.out.println(String.format("%.2f: %s", time, rock.getPos()));
+        EventJournal journal = EventJournal.console();
+        journal.bodyPosition(0, time, rock.getPos().getX(), rock.getPos().getY());
 
-        while ((rock.pos.getY() > 0) && (count > 0)){
+        while ((rock.getPos().getY() > 0) && (count > 0)){
             g.apply(rock, dt);
 
             count--;
             time += dt;
 
-            System.out.println(String.format("%.2f: %s", time, rock.getPos()));
+            journal.bodyPosition(0, time, rock.getPos().getX(), rock.getPos().getY());
         }
+        journal.flush();
     }
 };
 
@@ -0,0 +1,277 @@
+package com.ron.phys;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Point quadtree for sparse worlds, where a grid would be mostly empty cells. Leaves split
+ * once they hold more than LEAF_CAPACITY items and subtrees collapse again as items leave;
+ * the root grows outwards when an item lands outside it.
+ */
+public class QuadTreeIndex<T> extends SpatialIndex<T> {
+    public static final int LEAF_CAPACITY = 8;
+
+    // Leaves this many halvings below the initial size stop splitting, so stacked points stay put
+    private static final int MAX_SPLITS = 24;
+
+    private final double minNodeSize;
+    private Node<T> root;
+
+    public QuadTreeIndex(double x, double y, double size) {
+        if (!(size > 0)) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        this.root = new Node<T>(null, x, y, size);
+        this.minNodeSize = size / (1 << MAX_SPLITS);
+    }
+
+    @Override
+    public void range(double minX, double minY, double maxX, double maxY, List<T> out) {
+        range(root, minX, minY, maxX, maxY, out);
+    }
+
+    private void range(Node<T> n, double minX, double minY, double maxX, double maxY, List<T> out) {
+        if ((n.count == 0) || !n.overlaps(minX, minY, maxX, maxY)) {
+            return;
+        }
+        if (n.items != null) {
+            for (Slot<T> s : n.items) {
+                if (inside(s, minX, minY, maxX, maxY)) {
+                    out.add(s.item);
+                }
+            }
+        } else {
+            for (Node<T> child : n.children) {
+                range(child, minX, minY, maxX, maxY, out);
+            }
+        }
+    }
+
+    @Override
+    public int count(double minX, double minY, double maxX, double maxY) {
+        return count(root, minX, minY, maxX, maxY);
+    }
+
+    private int count(Node<T> n, double minX, double minY, double maxX, double maxY) {
+        if ((n.count == 0) || !n.overlaps(minX, minY, maxX, maxY)) {
+            return 0;
+        }
+        if (n.within(minX, minY, maxX, maxY)) {
+            return n.count;
+        }
+        int total = 0;
+        if (n.items != null) {
+            for (Slot<T> s : n.items) {
+                if (inside(s, minX, minY, maxX, maxY)) {
+                    total++;
+                }
+            }
+        } else {
+            for (Node<T> child : n.children) {
+                total += count(child, minX, minY, maxX, maxY);
+            }
+        }
+        return total;
+    }
+
+    @Override
+    void collectNearest(Nearest<T> best) {
+        nearest(root, best);
+    }
+
+    private void nearest(Node<T> n, Nearest<T> best) {
+        if (n.items != null) {
+            for (Slot<T> s : n.items) {
+                best.offer(s);
+            }
+            return;
+        }
+
+        // Visit children closest first so the bound tightens early
+        Node<T>[] order = n.children.clone();
+        double[] dist = new double[4];
+        for (int i = 0; i < 4; i++) {
+            dist[i] = order[i].distance2(best.x, best.y);
+        }
+        for (int i = 1; i < 4; i++) {
+            for (int j = i; (j > 0) && (dist[j] < dist[j - 1]); j--) {
+                double d = dist[j];
+                dist[j] = dist[j - 1];
+                dist[j - 1] = d;
+                Node<T> c = order[j];
+                order[j] = order[j - 1];
+                order[j - 1] = c;
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            if ((order[i].count > 0) && (dist[i] <= best.bound())) {
+                nearest(order[i], best);
+            }
+        }
+    }
+
+    @Override
+    void insert(Slot<T> slot) {
+        double x = slot.x;
+        double y = slot.y;
+        if (Double.isNaN(x) || Double.isNaN(y) || Double.isInfinite(x) || Double.isInfinite(y)) {
+            throw new IllegalArgumentException("Position must be finite: " + x + ", " + y);
+        }
+        while (!root.contains(x, y)) {
+            grow(x, y);
+        }
+
+        Node<T> n = root;
+        while (true) {
+            n.count++;
+            if (n.items == null) {
+                n = n.children[n.quadrant(x, y)];
+                continue;
+            }
+            if ((n.items.size() < LEAF_CAPACITY) || (n.size / 2 < minNodeSize)) {
+                slot.owner = n;
+                slot.index = n.items.size();
+                n.items.add(slot);
+                return;
+            }
+            split(n);
+            n.count--;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    void delete(Slot<T> slot) {
+        Node<T> leaf = (Node<T>) slot.owner;
+        Slot<T> last = leaf.items.remove(leaf.items.size() - 1);
+        if (last != slot) {
+            leaf.items.set(slot.index, last);
+            last.index = slot.index;
+        }
+        slot.owner = null;
+
+        Node<T> collapse = null;
+        for (Node<T> n = leaf; n != null; n = n.parent) {
+            n.count--;
+            if ((n.items == null) && (n.count <= LEAF_CAPACITY / 2)) {
+                collapse = n;
+            }
+        }
+        if (collapse != null) {
+            collapse(collapse);
+        }
+    }
+
+    @Override
+    void clearIndex() {
+        root = new Node<T>(null, root.x, root.y, root.size);
+    }
+
+    private void split(Node<T> n) {
+        double half = n.size / 2;
+        n.children = newChildren(n, half);
+        List<Slot<T>> items = n.items;
+        n.items = null;
+        for (Slot<T> s : items) {
+            Node<T> child = n.children[n.quadrant(s.x, s.y)];
+            s.owner = child;
+            s.index = child.items.size();
+            child.items.add(s);
+            child.count++;
+        }
+    }
+
+    private void collapse(Node<T> n) {
+        List<Slot<T>> items = new ArrayList<Slot<T>>(LEAF_CAPACITY);
+        gather(n, items);
+        n.children = null;
+        n.items = items;
+        for (int i = 0; i < items.size(); i++) {
+            items.get(i).owner = n;
+            items.get(i).index = i;
+        }
+    }
+
+    private static <T> void gather(Node<T> n, List<Slot<T>> out) {
+        if (n.items != null) {
+            out.addAll(n.items);
+        } else {
+            for (Node<T> child : n.children) {
+                gather(child, out);
+            }
+        }
+    }
+
+    /**
+     * Doubles the root towards (x, y), keeping the old root as one of the new quadrants.
+     */
+    private void grow(double x, double y) {
+        Node<T> old = root;
+        double nx = (x < old.x) ? old.x - old.size : old.x;
+        double ny = (y < old.y) ? old.y - old.size : old.y;
+        Node<T> grown = new Node<T>(null, nx, ny, old.size * 2);
+        grown.items = null;
+        grown.children = newChildren(grown, old.size);
+        int q = grown.quadrant(old.x, old.y);
+        grown.children[q] = old;
+        old.parent = grown;
+        grown.count = old.count;
+        root = grown;
+    }
+
+    private static <T> Node<T>[] newChildren(Node<T> n, double half) {
+        Node<T>[] children = newNodes(4);
+        for (int q = 0; q < 4; q++) {
+            double cx = ((q & 1) != 0) ? n.x + half : n.x;
+            double cy = ((q & 2) != 0) ? n.y + half : n.y;
+            children[q] = new Node<T>(n, cx, cy, half);
+        }
+        return children;
+    }
+
+    // Java has no generic array creation; the array only ever holds Node<T>
+    @SuppressWarnings("unchecked")
+    private static <T> Node<T>[] newNodes(int length) {
+        return (Node<T>[]) new Node<?>[length];
+    }
+
+    private static final class Node<T> {
+        final double x;
+        final double y;
+        final double size;
+        Node<T> parent;
+        Node<T>[] children;
+        List<Slot<T>> items = new ArrayList<Slot<T>>(LEAF_CAPACITY);
+        int count;
+
+        Node(Node<T> parent, double x, double y, double size) {
+            this.parent = parent;
+            this.x = x;
+            this.y = y;
+            this.size = size;
+        }
+
+        boolean contains(double px, double py) {
+            return (px >= x) && (px < x + size) && (py >= y) && (py < y + size);
+        }
+
+        int quadrant(double px, double py) {
+            double half = size / 2;
+            return ((px >= x + half) ? 1 : 0) | ((py >= y + half) ? 2 : 0);
+        }
+
+        boolean overlaps(double minX, double minY, double maxX, double maxY) {
+            return (minX < x + size) && (maxX >= x) && (minY < y + size) && (maxY >= y);
+        }
+
+        boolean within(double minX, double minY, double maxX, double maxY) {
+            return (minX <= x) && (x + size <= maxX) && (minY <= y) && (y + size <= maxY);
+        }
+
+        double distance2(double px, double py) {
+            double dx = Math.max(0, Math.max(x - px, px - (x + size)));
+            double dy = Math.max(0, Math.max(y - py, py - (y + size)));
+            return dx * dx + dy * dy;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.ron.phys;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * What the viewer needs to draw one tick, copied out of the World by the simulation thread:
+ * actor positions and labels, their targets and planned paths, and the cells each one covers.
+ * The arrays are reused from one fill to the next; a TripleBuffer makes sure nobody reads a
+ * snapshot while it is being filled.
+ */
+public class RenderSnapshot {
+    public static final int NO_TARGET = -1;
+
+    private long tick = -1;
+    private int width;
+    private int count;
+    private int[] x = new int[0];
+    private int[] y = new int[0];
+    private int[] destX = new int[0];
+    private int[] destY = new int[0];
+    private char[] label = new char[0];
+    private int[] bounds = new int[0];      // minX, minY, maxX, maxY per actor, in cells
+    private int[] pathStart = new int[1];   // actor i's path is pathCells[pathStart[i], pathStart[i + 1])
+    private int[] pathCells = new int[0];   // y * width + x
+
+    /**
+     * Copies the World's current state in, with each moving actor's route if includePaths is
+     * set. Routes are read from the jobs' own flow fields and planners, which only the
+     * simulation thread may touch; nothing is searched for them here.
+     */
+    void fill(World w, boolean includePaths) {
+        List<Actor> actors = w.getActors();
+        int n = actors.size();
+        if (x.length < n) {
+            int capacity = Math.max(n, 2 * x.length);
+            x = new int[capacity];
+            y = new int[capacity];
+            destX = new int[capacity];
+            destY = new int[capacity];
+            label = new char[capacity];
+            bounds = new int[4 * capacity];
+            pathStart = new int[capacity + 1];
+        }
+        tick = w.getTickCount();
+        width = w.getTerrain().getWidth();
+        count = n;
+
+        int cells = 0;
+        for (int i = 0; i < n; i++) {
+            Actor a = actors.get(i);
+            x[i] = a.getX();
+            y[i] = a.getY();
+            String name = a.getName();
+            label[i] = ((name == null) || name.isEmpty()) ? '?' : name.charAt(0);
+            int minX = x[i];
+            int minY = y[i];
+            int maxX = x[i];
+            int maxY = y[i];
+
+            pathStart[i] = cells;
+            Job j = a.getCurrentJob();
+            if (j instanceof MoveToJob) {
+                MoveToJob m = (MoveToJob) j;
+                destX[i] = m.getDestX();
+                destY[i] = m.getDestY();
+                minX = Math.min(minX, destX[i]);
+                minY = Math.min(minY, destY[i]);
+                maxX = Math.max(maxX, destX[i]);
+                maxY = Math.max(maxY, destY[i]);
+
+                if (includePaths) {
+                    int length = m.route(a, pathCells, cells, pathCells.length - cells);
+                    // A route that fills the space left may have been cut short; grow and retrace
+                    while (length == pathCells.length - cells) {
+                        pathCells = Arrays.copyOf(pathCells, Math.max(cells + 64, 2 * pathCells.length));
+                        length = m.route(a, pathCells, cells, pathCells.length - cells);
+                    }
+                    for (int end = cells + length; cells < end; cells++) {
+                        int px = pathCells[cells] % width;
+                        int py = pathCells[cells] / width;
+                        minX = Math.min(minX, px);
+                        minY = Math.min(minY, py);
+                        maxX = Math.max(maxX, px);
+                        maxY = Math.max(maxY, py);
+                    }
+                }
+            } else {
+                destX[i] = NO_TARGET;
+                destY[i] = NO_TARGET;
+            }
+
+            bounds[4 * i] = minX;
+            bounds[4 * i + 1] = minY;
+            bounds[4 * i + 2] = maxX;
+            bounds[4 * i + 3] = maxY;
+        }
+        pathStart[n] = cells;
+    }
+
+    /**
+     * Tick count of the World when this was filled, or -1 if it never was.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    public int getActorCount() {
+        return count;
+    }
+
+    public int getX(int i) {
+        return x[i];
+    }
+
+    public int getY(int i) {
+        return y[i];
+    }
+
+    public boolean hasTarget(int i) {
+        return destX[i] != NO_TARGET;
+    }
+
+    public int getDestX(int i) {
+        return destX[i];
+    }
+
+    public int getDestY(int i) {
+        return destY[i];
+    }
+
+    public char getLabel(int i) {
+        return label[i];
+    }
+
+    public int getPathLength(int i) {
+        return pathStart[i + 1] - pathStart[i];
+    }
+
+    public int getPathX(int i, int step) {
+        return pathCells[pathStart[i] + step] % width;
+    }
+
+    public int getPathY(int i, int step) {
+        return pathCells[pathStart[i] + step] / width;
+    }
+
+    /**
+     * Copies actor i's covered cells as { minX, minY, maxX, maxY } into out.
+     */
+    public void getBounds(int i, int[] out) {
+        System.arraycopy(bounds, 4 * i, out, 0, 4);
+    }
+}
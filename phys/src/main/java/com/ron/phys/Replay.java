@@ -0,0 +1,161 @@
+package com.ron.phys;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Re-executes a ReplayRecorder journal headlessly and as fast as possible, checking the
+ * World's checksum wherever the recording has one. Stops at the first mismatch. Also keeps
+ * the slowest ticks, so a problem seen in production can be profiled offline.
+ *
+ * Usage: Replay journal-file [--slowest 10] [--parallel]
+ */
+public class Replay {
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: Replay journal-file [--slowest 10] [--parallel]");
+            System.exit(2);
+        }
+        int slowest = 10;
+        boolean parallel = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--parallel")) {
+                parallel = true;
+            } else if (args[i].equals("--slowest") && (i + 1 < args.length)) {
+                slowest = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Unknown option " + args[i]);
+                System.exit(2);
+            }
+        }
+
+        Result result = run(Paths.get(args[0]), parallel, slowest);
+        System.out.println(result);
+        System.exit(result.isDiverged() ? 1 : 0);
+    }
+
+    public static Result run(Path file, boolean parallel, int slowest) throws IOException {
+        Result result = new Result(slowest);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.read() != ReplayRecorder.WORLD || in.readInt() != ReplayRecorder.MAGIC) {
+                throw new IOException("Not a replay journal: " + file);
+            }
+            int version = in.readInt();
+            if (version != ReplayRecorder.VERSION) {
+                throw new IOException("Unsupported replay journal version " + version);
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            StateRandom r = new StateRandom();
+            r.setState(in.readLong());
+            World w = new World(width, height, r);
+            w.setJournal(null);
+            w.setParallelTick(parallel);
+
+            long start = System.nanoTime();
+            int type;
+            while ((type = in.read()) != -1) {
+                switch (type) {
+                    case ReplayRecorder.ACTOR:
+                        w.addActor(new Actor(in.readUTF(), new Loc(in.readInt(), in.readInt())));
+                        break;
+                    case ReplayRecorder.JOB:
+                        MoveToJob job = new MoveToJob(in.readInt(), in.readInt());
+                        job.setPriority(in.readInt());
+                        w.addJob(job);
+                        break;
+                    case ReplayRecorder.TICK:
+                        long t0 = System.nanoTime();
+                        w.tick();
+                        result.ticked(w.getTickCount(), System.nanoTime() - t0);
+                        break;
+                    case ReplayRecorder.CHECKSUM:
+                        long tick = in.readLong();
+                        long expected = in.readLong();
+                        if (tick != w.getTickCount() || expected != w.checksum()) {
+                            result.divergedAt = tick;
+                            result.elapsedNanos = System.nanoTime() - start;
+                            return result;
+                        }
+                        result.checksums++;
+                        break;
+                    default:
+                        throw new IOException("Bad record type " + type + " after tick " + w.getTickCount());
+                }
+            }
+            result.elapsedNanos = System.nanoTime() - start;
+        }
+        return result;
+    }
+
+    public static class Result {
+        private long ticks;
+        private long elapsedNanos;
+        private int checksums;
+        private long divergedAt = -1;
+        private final long[] slowTicks;
+        private final long[] slowNanos;
+        private int slowCount;
+
+        Result(int slowest) {
+            slowTicks = new long[Math.max(0, slowest)];
+            slowNanos = new long[slowTicks.length];
+        }
+
+        void ticked(long tick, long nanos) {
+            ticks++;
+            if (slowTicks.length == 0 || (slowCount == slowTicks.length && nanos <= slowNanos[slowCount - 1])) {
+                return;
+            }
+            int i = (slowCount < slowTicks.length) ? slowCount++ : slowCount - 1;
+            while (i > 0 && slowNanos[i - 1] < nanos) {
+                slowTicks[i] = slowTicks[i - 1];
+                slowNanos[i] = slowNanos[i - 1];
+                i--;
+            }
+            slowTicks[i] = tick;
+            slowNanos[i] = nanos;
+        }
+
+        public long getTicks() {
+            return ticks;
+        }
+
+        public int getChecksumsVerified() {
+            return checksums;
+        }
+
+        public boolean isDiverged() {
+            return divergedAt >= 0;
+        }
+
+        /**
+         * Tick count at the first checksum that did not match, or -1.
+         */
+        public long getDivergedAt() {
+            return divergedAt;
+        }
+
+        public double getTicksPerSecond() {
+            return (elapsedNanos == 0) ? 0 : ticks * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%d ticks replayed at %.1f ticks/s, %d checksums verified",
+                    ticks, getTicksPerSecond(), checksums));
+            if (isDiverged()) {
+                sb.append(", DIVERGED at tick ").append(divergedAt);
+            }
+            for (int i = 0; i < slowCount; i++) {
+                sb.append(String.format("%n  tick %d: %.3f ms", slowTicks[i], slowNanos[i] / 1e6));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.ron.phys;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Append-only journal of the inputs that drive a World: how it was created, the actors and
+ * jobs added to it, and where each tick ends. Replaying the journal against a fresh World
+ * reproduces the run exactly. Every checksumInterval ticks the World's checksum is written
+ * too, so a replay can tell where it diverged.
+ *
+ * Records are a type byte followed by big-endian fields:
+ * <pre>
+ *   WORLD     int magic, int version, int width, int height, long random state
+ *   ACTOR     UTF name, int x, int y
+ *   JOB       int destX, int destY, int priority      (MoveToJob only)
+ *   TICK      nothing
+ *   CHECKSUM  long tick count, long checksum
+ * </pre>
+ * Output is buffered and flushed at every checksum and on close.
+ */
+public class ReplayRecorder implements Closeable {
+    public static final int MAGIC = 0x52504C59;     // "RPLY"
+    public static final int VERSION = 1;
+    public static final int DEFAULT_CHECKSUM_INTERVAL = 100;
+
+    static final byte WORLD = 1;
+    static final byte ACTOR = 2;
+    static final byte JOB = 3;
+    static final byte TICK = 4;
+    static final byte CHECKSUM = 5;
+
+    private final DataOutputStream out;
+    private final int checksumInterval;
+
+    public ReplayRecorder(Path file) throws IOException {
+        this(file, DEFAULT_CHECKSUM_INTERVAL);
+    }
+
+    public ReplayRecorder(Path file, int checksumInterval) throws IOException {
+        if (checksumInterval <= 0) {
+            throw new IllegalArgumentException("checksumInterval must be positive: " + checksumInterval);
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        this.checksumInterval = checksumInterval;
+    }
+
+    void worldCreated(int width, int height, long randomState) throws IOException {
+        out.writeByte(WORLD);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeLong(randomState);
+        out.flush();
+    }
+
+    void actorAdded(Actor a) {
+        try {
+            out.writeByte(ACTOR);
+            out.writeUTF((a.getName() == null) ? "" : a.getName());
+            out.writeInt(a.getX());
+            out.writeInt(a.getY());
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    void jobAdded(Job job) {
+        if (!(job instanceof MoveToJob)) {
+            throw new IllegalArgumentException("Cannot record job type " + job.getClass().getName());
+        }
+        MoveToJob m = (MoveToJob) job;
+        try {
+            out.writeByte(JOB);
+            out.writeInt(m.getDestX());
+            out.writeInt(m.getDestY());
+            out.writeInt(m.getPriority());
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    void ticked(World w) {
+        try {
+            out.writeByte(TICK);
+            if (w.getTickCount() % checksumInterval == 0) {
+                out.writeByte(CHECKSUM);
+                out.writeLong(w.getTickCount());
+                out.writeLong(w.checksum());
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private static IllegalStateException failed(IOException e) {
+        return new IllegalStateException("Could not write replay journal", e);
+    }
+}
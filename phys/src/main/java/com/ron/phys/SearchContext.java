@@ -0,0 +1,90 @@
+package com.ron.phys;
+
+import java.util.Arrays;
+
+/**
+ * Per-thread scratch space for grid searches. Cells are only valid if their stamp matches the
+ * current generation, so starting a new search is O(1) instead of refilling every array.
+ *
+ * A context is reused by every search on its thread, so searches must not be nested.
+ */
+public class SearchContext {
+    public static final int UNSEEN = Integer.MAX_VALUE;
+    public static final int NONE = -1;
+
+    private static final ThreadLocal<SearchContext> CONTEXTS = new ThreadLocal<SearchContext>() {
+        @Override
+        protected SearchContext initialValue() {
+            return new SearchContext(0);
+        }
+    };
+
+    private int[] gScore;
+    private int[] cameFrom;
+    private int[] stamp;
+    private int generation;
+    private IndexedMinHeap openSet;
+
+    // Scratch buffer for neighbour iteration, see AStar.neighbors
+    final int[] neighbors = new int[8];
+
+    public SearchContext(int cells) {
+        allocate(cells);
+    }
+
+    /**
+     * This thread's context, grown to hold at least the given number of cells.
+     */
+    public static SearchContext get(int cells) {
+        SearchContext context = CONTEXTS.get();
+        if (context.stamp.length < cells) {
+            context.allocate(cells);
+        }
+        return context;
+    }
+
+    private void allocate(int cells) {
+        this.gScore = new int[cells];
+        this.cameFrom = new int[cells];
+        this.stamp = new int[cells];
+        this.openSet = new IndexedMinHeap(cells);
+        this.generation = 0;
+    }
+
+    /**
+     * Forgets the previous search.
+     */
+    public void begin() {
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+        openSet.clear();
+    }
+
+    public int capacity() {
+        return stamp.length;
+    }
+
+    public int gScore(int cell) {
+        return (stamp[cell] == generation) ? gScore[cell] : UNSEEN;
+    }
+
+    public int cameFrom(int cell) {
+        return (stamp[cell] == generation) ? cameFrom[cell] : NONE;
+    }
+
+    public boolean seen(int cell) {
+        return stamp[cell] == generation;
+    }
+
+    public void set(int cell, int g, int from) {
+        stamp[cell] = generation;
+        gScore[cell] = g;
+        cameFrom[cell] = from;
+    }
+
+    public IndexedMinHeap openSet() {
+        return openSet;
+    }
+}
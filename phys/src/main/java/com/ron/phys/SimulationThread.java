@@ -0,0 +1,132 @@
+package com.ron.phys;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ticks a World on its own thread at a fixed rate and publishes a RenderSnapshot after every
+ * tick. Once started, the World belongs to this thread; other threads should only look at
+ * latest(). If a tick overruns its slot the schedule slips rather than trying to catch up.
+ */
+public class SimulationThread {
+    private final World world;
+    private final TripleBuffer<RenderSnapshot> snapshots =
+            new TripleBuffer<RenderSnapshot>(new RenderSnapshot(), new RenderSnapshot(), new RenderSnapshot());
+    private final Thread thread;
+    private volatile double tickRate;
+    private volatile boolean paused;
+    private volatile boolean running;
+    private volatile boolean includePaths = true;
+    private volatile Throwable failure;
+
+    /**
+     * @param tickRate ticks per second; 0 ticks as fast as possible
+     */
+    public SimulationThread(World world, double tickRate) {
+        this.world = world;
+        setTickRate(tickRate);
+        this.thread = new Thread("simulation") {
+            @Override
+            public void run() {
+                loop();
+            }
+        };
+        thread.setDaemon(true);
+        // Let readers see the starting state before the first tick
+        snapshots.back().fill(world, includePaths);
+        snapshots.publish();
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops after the tick in progress and waits for the thread to finish.
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    public double getTickRate() {
+        return tickRate;
+    }
+
+    public void setTickRate(double tickRate) {
+        if (tickRate < 0) {
+            throw new IllegalArgumentException("tickRate must not be negative: " + tickRate);
+        }
+        this.tickRate = tickRate;
+        LockSupport.unpark(thread);
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Whether snapshots carry each actor's planned path. Paths cost an A* search per moving
+     * actor per tick, which can dominate with many actors.
+     */
+    public void setIncludePaths(boolean includePaths) {
+        this.includePaths = includePaths;
+    }
+
+    /**
+     * The error that stopped the thread, if it died.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * The newest snapshot. Must only be called from one thread, normally the Swing EDT.
+     */
+    public RenderSnapshot latest() {
+        return snapshots.latest();
+    }
+
+    private void loop() {
+        long next = System.nanoTime();
+        try {
+            while (running) {
+                if (paused) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+                    next = System.nanoTime();
+                    continue;
+                }
+
+                double rate = tickRate;
+                if (rate > 0) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                        continue;   // woken early, or the rate changed: check again
+                    }
+                }
+
+                world.tick();
+                RenderSnapshot s = snapshots.back();
+                s.fill(world, includePaths);
+                snapshots.publish();
+
+                if (rate > 0) {
+                    long period = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+                    next = Math.max(next + period, System.nanoTime() - period);
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            failure = e;
+            running = false;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.ron.phys;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Points in the plane that can be moved cheaply and queried by area or by distance.
+ * Items are tracked by identity; put() inserts an item or moves it if it is already indexed.
+ * Ties in nearest() go to the item that was indexed first, so results are deterministic.
+ */
+public abstract class SpatialIndex<T> {
+    private final Map<T, Slot<T>> slots = new IdentityHashMap<T, Slot<T>>();
+    private long nextSeq;
+
+    public void put(T item, double x, double y) {
+        Slot<T> slot = slots.get(item);
+        if (slot == null) {
+            slot = new Slot<T>(item, nextSeq++);
+            slot.x = x;
+            slot.y = y;
+            slots.put(item, slot);
+            insert(slot);
+        } else if ((slot.x != x) || (slot.y != y)) {
+            move(slot, x, y);
+        }
+    }
+
+    public boolean remove(T item) {
+        Slot<T> slot = slots.remove(item);
+        if (slot == null) {
+            return false;
+        }
+        delete(slot);
+        return true;
+    }
+
+    public boolean contains(T item) {
+        return slots.containsKey(item);
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    public void clear() {
+        slots.clear();
+        clearIndex();
+    }
+
+    /**
+     * Adds every item inside the box (edges included) to out.
+     */
+    public abstract void range(double minX, double minY, double maxX, double maxY, List<T> out);
+
+    /**
+     * Number of items inside the box (edges included).
+     */
+    public abstract int count(double minX, double minY, double maxX, double maxY);
+
+    /**
+     * Adds up to k items closest to (x, y) to out, nearest first.
+     */
+    public void nearest(double x, double y, int k, List<T> out) {
+        if (k <= 0 || slots.isEmpty()) {
+            return;
+        }
+        Nearest<T> best = new Nearest<T>(x, y, Math.min(k, slots.size()));
+        collectNearest(best);
+        for (int i = 0; i < best.count; i++) {
+            out.add(best.slots[i].item);
+        }
+    }
+
+    abstract void insert(Slot<T> slot);
+
+    abstract void delete(Slot<T> slot);
+
+    abstract void clearIndex();
+
+    abstract void collectNearest(Nearest<T> best);
+
+    /**
+     * Moves an indexed slot; implementations can override this to avoid a delete and insert.
+     */
+    void move(Slot<T> slot, double x, double y) {
+        delete(slot);
+        slot.x = x;
+        slot.y = y;
+        insert(slot);
+    }
+
+    static boolean inside(Slot<?> s, double minX, double minY, double maxX, double maxY) {
+        return (s.x >= minX) && (s.x <= maxX) && (s.y >= minY) && (s.y <= maxY);
+    }
+
+    // Java has no generic array creation; the array only ever holds Slot<T>
+    @SuppressWarnings("unchecked")
+    static <T> Slot<T>[] newSlots(int length) {
+        return (Slot<T>[]) new Slot<?>[length];
+    }
+
+    static final class Slot<T> {
+        final T item;
+        final long seq;
+        double x;
+        double y;
+        Object owner;   // the bucket or tree node holding this slot
+        int index;      // position within the owner
+
+        Slot(T item, long seq) {
+            this.item = item;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * The k best candidates seen so far, kept sorted by (squared distance, seq).
+     */
+    static final class Nearest<T> {
+        final double x;
+        final double y;
+        final Slot<T>[] slots;
+        final double[] dist;
+        int count;
+
+        Nearest(double x, double y, int k) {
+            this.x = x;
+            this.y = y;
+            this.slots = newSlots(k);
+            this.dist = new double[k];
+        }
+
+        boolean full() {
+            return count == slots.length;
+        }
+
+        /**
+         * Squared distance a candidate must beat, or infinity while there is still room.
+         */
+        double bound() {
+            return full() ? dist[count - 1] : Double.POSITIVE_INFINITY;
+        }
+
+        void offer(Slot<T> s) {
+            double dx = s.x - x;
+            double dy = s.y - y;
+            double d = dx * dx + dy * dy;
+            if (full() && ((d > dist[count - 1]) || ((d == dist[count - 1]) && (s.seq > slots[count - 1].seq)))) {
+                return;
+            }
+
+            int i = full() ? count - 1 : count++;
+            while ((i > 0) && ((dist[i - 1] > d) || ((dist[i - 1] == d) && (slots[i - 1].seq > s.seq)))) {
+                slots[i] = slots[i - 1];
+                dist[i] = dist[i - 1];
+                i--;
+            }
+            slots[i] = s;
+            dist[i] = d;
+        }
+    }
+}
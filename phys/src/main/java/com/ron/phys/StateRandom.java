@@ -0,0 +1,51 @@
+package com.ron.phys;
+
+import java.util.Random;
+
+/**
+ * java.util.Random with its generator state exposed, so a World's randomness can be saved and
+ * restored. Uses the same linear congruential generator and constants as Random, so a seeded
+ * StateRandom produces exactly the numbers Random would.
+ *
+ * Unlike Random it is not safe for use from several threads, and the cached second value of
+ * nextGaussian() is not part of the saved state.
+ */
+public class StateRandom extends Random {
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private long state;     // assigned by setSeed() from Random's constructor, so no initializer
+
+    public StateRandom() {
+        super();
+    }
+
+    public StateRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        super.setSeed(seed);
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    /**
+     * The raw 48-bit generator state, for setState(); not the seed it started from.
+     */
+    public long getState() {
+        return state;
+    }
+
+    public void setState(long state) {
+        super.setSeed(0);   // drops any cached nextGaussian() value
+        this.state = state & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+}
@@ -0,0 +1,128 @@
+package com.ron.phys;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Procedural terrain, one chunk at a time: an indestructible border with trees scattered over
+ * the rest. Each chunk draws from its own SplitMix64 stream seeded from (seed, chunkX, chunkY),
+ * so a chunk comes out the same whenever, on whichever thread, and in whatever order it is
+ * generated. Installed as the storage's ChunkLoader, nothing is generated until first touched.
+ */
+public class TerrainGenerator implements TerrainStorage.ChunkLoader {
+    public static final int TREE_PERCENT = 20;
+
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+    private static final int CHUNKS_PER_TASK = 16;
+
+    private final long seed;
+    private final int width;
+    private final int height;
+    private final int chunksX;
+
+    public TerrainGenerator(long seed, int width, int height) {
+        this.seed = seed;
+        this.width = width;
+        this.height = height;
+        this.chunksX = (width + TerrainStorage.CHUNK_SIZE - 1) >> TerrainStorage.CHUNK_SHIFT;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Leaves every chunk of storage to this generator.
+     */
+    void install(TerrainStorage storage) {
+        for (int chunk = 0; chunk < storage.getChunkCount(); chunk++) {
+            storage.setLazy(chunk, this);
+        }
+    }
+
+    @Override
+    public void load(int chunk, byte[] packed) {
+        int cx = chunk % chunksX;
+        int cy = chunk / chunksX;
+        int x0 = cx << TerrainStorage.CHUNK_SHIFT;
+        int y0 = cy << TerrainStorage.CHUNK_SHIFT;
+        int empty = Terrain.SQ.EMPTY.getCode();
+        int wall = Terrain.SQ.INDESTRUCTABLE.getCode();
+        int tree = Terrain.SQ.TREE.getCode();
+
+        long state = mix(seed ^ mix(((long) cx << 32) | (cy & 0xFFFFFFFFL)));
+        for (int i = 0; i < TerrainStorage.CHUNK_SIZE * TerrainStorage.CHUNK_SIZE; i++) {
+            int x = x0 + (i & (TerrainStorage.CHUNK_SIZE - 1));
+            int y = y0 + (i >> TerrainStorage.CHUNK_SHIFT);
+            state += GOLDEN;
+            int code;
+            if ((x >= width) || (y >= height)) {
+                code = empty;
+            } else if ((x == 0) || (y == 0) || (x == width - 1) || (y == height - 1)) {
+                code = wall;
+            } else {
+                // Top 32 bits scaled onto [0, 100)
+                int roll = (int) (((mix(state) >>> 32) * 100) >>> 32);
+                code = (roll < TREE_PERCENT) ? tree : empty;
+            }
+            if ((i & 1) == 0) {
+                packed[i >> 1] = (byte) code;
+            } else {
+                packed[i >> 1] |= (byte) (code << 4);
+            }
+        }
+    }
+
+    /**
+     * Generates every chunk of storage still waiting on this generator, in parallel on the
+     * shared pool. The result is the same as touching each chunk in turn.
+     */
+    public void pregenerate(TerrainStorage storage) {
+        int chunks = storage.getChunkCount();
+        if (chunks <= CHUNKS_PER_TASK) {
+            generate(storage, 0, chunks);
+        } else {
+            Workers.pool().invoke(new Generate(this, storage, 0, chunks));
+        }
+    }
+
+    private void generate(TerrainStorage storage, int from, int to) {
+        for (int chunk = from; chunk < to; chunk++) {
+            if (storage.pendingLoader(chunk) == this) {
+                byte[] packed = new byte[TerrainStorage.CHUNK_BYTES];
+                load(chunk, packed);
+                storage.install(chunk, this, packed);
+            }
+        }
+    }
+
+    // SplitMix64 finalizer
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static final class Generate extends RecursiveAction {
+        private final TerrainGenerator generator;
+        private final TerrainStorage storage;
+        private final int from;
+        private final int to;
+
+        Generate(TerrainGenerator generator, TerrainStorage storage, int from, int to) {
+            this.generator = generator;
+            this.storage = storage;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNKS_PER_TASK) {
+                generator.generate(storage, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Generate(generator, storage, from, mid), new Generate(generator, storage, mid, to));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.ron.phys;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Terrain drawn once into an image at one pixel per cell, then kept current by listening for
+ * cell changes. Painting is a scaled blit of the part that is on screen; the changed cells are
+ * collected as a dirty rectangle so the viewer only repaints what moved.
+ */
+public class TerrainRaster implements TerrainListener {
+    private final Terrain terrain;
+    private final int[] palette;
+    private final BufferedImage image;
+    private final int[] pixels;
+    private Rectangle dirty;    // in cells, null when clean
+
+    public TerrainRaster(Terrain terrain, Color[] colors) {
+        this.terrain = terrain;
+        this.palette = new int[TerrainStorage.MAX_CODE + 1];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = (i < colors.length) ? colors[i].getRGB() : Color.MAGENTA.getRGB();
+        }
+
+        int width = terrain.getWidth();
+        int height = terrain.getHeight();
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        byte[] row = new byte[width];
+        for (int y = 0; y < height; y++) {
+            terrain.readRow(y, 0, width, row);
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = palette[row[x]];
+            }
+        }
+        terrain.addListener(this);
+    }
+
+    @Override
+    public synchronized void cellChanged(int x, int y) {
+        pixels[y * terrain.getWidth() + x] = palette[terrain.getCode(x, y)];
+        if (dirty == null) {
+            dirty = new Rectangle(x, y, 1, 1);
+        } else {
+            dirty.add(new Rectangle(x, y, 1, 1));
+        }
+    }
+
+    /**
+     * Cells changed since the last call, or null if none.
+     */
+    public synchronized Rectangle takeDirty() {
+        Rectangle r = dirty;
+        dirty = null;
+        return r;
+    }
+
+    public int getRGB(int x, int y) {
+        return image.getRGB(x, y);
+    }
+
+    /**
+     * Draws the cells that fall inside the clip at scale pixels per cell.
+     */
+    public synchronized void paint(Graphics g, int scale) {
+        if (scale <= 0) {
+            return;
+        }
+        int width = terrain.getWidth();
+        int height = terrain.getHeight();
+        Rectangle clip = g.getClipBounds();
+        int x0 = 0;
+        int y0 = 0;
+        int x1 = width;
+        int y1 = height;
+        if (clip != null) {
+            x0 = Math.max(0, clip.x / scale);
+            y0 = Math.max(0, clip.y / scale);
+            x1 = Math.min(width, (clip.x + clip.width + scale - 1) / scale);
+            y1 = Math.min(height, (clip.y + clip.height + scale - 1) / scale);
+        }
+        if ((x0 < x1) && (y0 < y1)) {
+            g.drawImage(image, x0 * scale, y0 * scale, x1 * scale, y1 * scale, x0, y0, x1, y1, null);
+        }
+    }
+
+    public void dispose() {
+        terrain.removeListener(this);
+    }
+}
@@ -0,0 +1,263 @@
+package com.ron.phys;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Grid of 4-bit cell codes split into square chunks. A chunk that holds one code everywhere
+ * is stored as that single value; it only gets a packed array (two cells per byte) once a
+ * cell in it is set to something else.
+ *
+ * Chunks can also be left to a ChunkLoader, which fills them in the first time they are
+ * touched. Loaders run outside the storage's lock, only installing their result takes it,
+ * and chunk arrays are published through atomic slots, so any number of threads may read,
+ * and fill different chunks, at once. Writes still need a single owner.
+ */
+public class TerrainStorage {
+    /**
+     * Supplies the packed nibbles of a chunk on first access. May be called from several
+     * threads at once, and twice for one chunk when two threads touch it together; only the
+     * first result is kept, so both calls must produce the same cells.
+     */
+    public interface ChunkLoader {
+        void load(int chunk, byte[] packed);
+    }
+
+    public static final int CHUNK_SHIFT = 6;
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    public static final int MAX_CODE = 15;
+    public static final int CHUNK_BYTES = CHUNK_SIZE * CHUNK_SIZE / 2;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int width;
+    private final int height;
+    private final int chunksX;
+    private final int chunksY;
+
+    // Per chunk: packed nibbles, or null if the whole chunk is uniform[chunk] or not loaded yet
+    private final AtomicReferenceArray<byte[]> data;
+    private final byte[] uniform;
+    // Per chunk, until loaded; null if no chunk was ever lazy. A load publishes data before
+    // clearing its loader, so a reader that finds both empty knows the chunk is uniform.
+    private volatile AtomicReferenceArray<ChunkLoader> lazy;
+
+    public TerrainStorage(int width, int height, int fill) {
+        checkCode(fill);
+        this.width = width;
+        this.height = height;
+        this.chunksX = (width + CHUNK_MASK) >> CHUNK_SHIFT;
+        this.chunksY = (height + CHUNK_MASK) >> CHUNK_SHIFT;
+        this.data = new AtomicReferenceArray<byte[]>(chunksX * chunksY);
+        this.uniform = new byte[chunksX * chunksY];
+        Arrays.fill(uniform, (byte) fill);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int get(int x, int y) {
+        int chunk = chunk(x, y);
+        byte[] packed = cells(chunk);
+        if (packed == null) {
+            return uniform[chunk];
+        }
+        int i = offset(x, y);
+        return (packed[i >> 1] >> ((i & 1) << 2)) & 0xF;
+    }
+
+    public void set(int x, int y, int code) {
+        checkCode(code);
+        int chunk = chunk(x, y);
+        byte[] packed = cells(chunk);
+        if (packed == null) {
+            if (uniform[chunk] == code) {
+                return;
+            }
+            packed = expand(uniform[chunk]);
+            data.set(chunk, packed);
+        }
+        int i = offset(x, y);
+        int shift = (i & 1) << 2;
+        packed[i >> 1] = (byte) ((packed[i >> 1] & ~(0xF << shift)) | (code << shift));
+    }
+
+    /**
+     * Copies the codes of row y from x0 (inclusive) to x1 (exclusive) into out, walking
+     * each chunk's row in memory order.
+     */
+    public void readRow(int y, int x0, int x1, byte[] out) {
+        int x = x0;
+        while (x < x1) {
+            int chunk = chunk(x, y);
+            int end = Math.min(x1, ((x >> CHUNK_SHIFT) + 1) << CHUNK_SHIFT);
+            byte[] packed = cells(chunk);
+            if (packed == null) {
+                Arrays.fill(out, x - x0, end - x0, uniform[chunk]);
+            } else {
+                for (int i = offset(x, y); x < end; x++, i++) {
+                    out[x - x0] = (byte) ((packed[i >> 1] >> ((i & 1) << 2)) & 0xF);
+                }
+            }
+            x = end;
+        }
+    }
+
+    public int getChunkCount() {
+        return data.length();
+    }
+
+    /**
+     * The chunk's packed nibbles, loading it if needed, or null if the chunk is uniform.
+     * The array is live; callers must not modify it.
+     */
+    byte[] chunkData(int chunk) {
+        return cells(chunk);
+    }
+
+    int uniformCode(int chunk) {
+        return uniform[chunk];
+    }
+
+    /**
+     * Makes a chunk uniform, dropping its cells and any pending load.
+     */
+    void setUniform(int chunk, int code) {
+        checkCode(code);
+        uniform[chunk] = (byte) code;
+        data.set(chunk, null);
+        if (lazy != null) {
+            lazy.set(chunk, null);
+        }
+    }
+
+    /**
+     * Hands a chunk's contents over to loader, which is called once on the first access.
+     */
+    synchronized void setLazy(int chunk, ChunkLoader loader) {
+        if (lazy == null) {
+            lazy = new AtomicReferenceArray<ChunkLoader>(data.length());
+        }
+        lazy.set(chunk, loader);
+        data.set(chunk, null);
+    }
+
+    /**
+     * The loader a chunk is still waiting for, or null if it has none.
+     */
+    synchronized ChunkLoader pendingLoader(int chunk) {
+        return (lazy == null) ? null : lazy.get(chunk);
+    }
+
+    /**
+     * Stores cells that loader produced away from the lock, unless the chunk was loaded or
+     * replaced in the meantime. Lets several threads fill chunks at once.
+     */
+    synchronized void install(int chunk, ChunkLoader loader, byte[] packed) {
+        if ((lazy != null) && (lazy.get(chunk) == loader)) {
+            data.set(chunk, packed);
+            lazy.set(chunk, null);
+        }
+    }
+
+    /**
+     * Chunks still waiting for their loader.
+     */
+    public synchronized int getPendingChunks() {
+        int n = 0;
+        if (lazy != null) {
+            for (int chunk = 0; chunk < lazy.length(); chunk++) {
+                if (lazy.get(chunk) != null) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    // The chunk's packed nibbles, loading it if needed, or null if it is uniform
+    private byte[] cells(int chunk) {
+        byte[] packed = data.get(chunk);
+        if ((packed == null) && (lazy != null)) {
+            if (lazy.get(chunk) != null) {
+                packed = load(chunk);
+            } else {
+                // A load may have finished between the two reads above
+                packed = data.get(chunk);
+            }
+        }
+        return packed;
+    }
+
+    private byte[] load(int chunk) {
+        ChunkLoader loader = lazy.get(chunk);
+        if (loader != null) {
+            byte[] packed = new byte[CHUNK_BYTES];
+            loader.load(chunk, packed);
+            install(chunk, loader, packed);
+        }
+        // Ours, or whatever a thread that got there first installed
+        return data.get(chunk);
+    }
+
+    /**
+     * Collapses chunks that have become uniform again back to a single value.
+     */
+    public void compact() {
+        for (int chunk = 0; chunk < data.length(); chunk++) {
+            byte[] packed = data.get(chunk);
+            if (packed == null) {
+                continue;
+            }
+            int first = packed[0] & 0xF;
+            byte both = (byte) (first | (first << 4));
+            boolean same = true;
+            for (int i = 0; i < packed.length && same; i++) {
+                same = packed[i] == both;
+            }
+            if (same) {
+                uniform[chunk] = (byte) first;
+                data.set(chunk, null);
+            }
+        }
+    }
+
+    /**
+     * Bytes held by cell data, for sizing; excludes the fixed per-chunk tables.
+     */
+    public long dataBytes() {
+        long bytes = 0;
+        for (int chunk = 0; chunk < data.length(); chunk++) {
+            byte[] packed = data.get(chunk);
+            if (packed != null) {
+                bytes += packed.length;
+            }
+        }
+        return bytes;
+    }
+
+    private static byte[] expand(int code) {
+        byte[] packed = new byte[CHUNK_BYTES];
+        Arrays.fill(packed, (byte) (code | (code << 4)));
+        return packed;
+    }
+
+    private int chunk(int x, int y) {
+        return (y >> CHUNK_SHIFT) * chunksX + (x >> CHUNK_SHIFT);
+    }
+
+    private static int offset(int x, int y) {
+        return ((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK);
+    }
+
+    private static void checkCode(int code) {
+        if ((code < 0) || (code > MAX_CODE)) {
+            throw new IllegalArgumentException("Cell code out of range: " + code);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.ron.phys;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free handoff of the latest value from one writer thread to one reader thread. There are
+ * three preallocated slots: the writer fills its back slot and publishes it, and the reader
+ * takes whichever slot was published last. Neither side ever waits for the other, and a slot
+ * is never written while the reader holds it. Values published while the reader is busy are
+ * skipped.
+ */
+public class TripleBuffer<T> {
+    private static final int INDEX = 3;
+    private static final int FRESH = 4;    // set in middle when it holds a slot the reader hasn't seen
+
+    private final Object[] slots;
+    private final AtomicInteger middle = new AtomicInteger(2);
+    private int back = 0;       // writer's slot
+    private int front = 1;      // reader's slot
+
+    public TripleBuffer(T first, T second, T third) {
+        this.slots = new Object[] { first, second, third };
+    }
+
+    /**
+     * The slot the writer may fill. Writer thread only.
+     */
+    @SuppressWarnings("unchecked")
+    public T back() {
+        return (T) slots[back];
+    }
+
+    /**
+     * Hands the back slot to the reader and gives the writer a free one. Writer thread only.
+     */
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /**
+     * The most recently published value, or the reader's current one if nothing new has been
+     * published. It stays untouched until the next call. Reader thread only.
+     */
+    @SuppressWarnings("unchecked")
+    public T latest() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX;
+        }
+        return (T) slots[front];
+    }
+}
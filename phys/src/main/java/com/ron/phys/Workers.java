@@ -0,0 +1,20 @@
+package com.ron.phys;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The fork-join pool shared by the parallel parts of the simulation, created on first use.
+ */
+public final class Workers {
+    private static ForkJoinPool pool;
+
+    private Workers() {
+    }
+
+    public static synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+}
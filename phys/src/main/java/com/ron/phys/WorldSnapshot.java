@@ -0,0 +1,269 @@
+package com.ron.phys;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves a World to a binary file and loads it back, both through memory-mapped buffers.
+ *
+ * Layout (big-endian), version 1:
+ * <pre>
+ *   header   int magic "DORF", int version, int width, int height, long random state,
+ *            byte flags (bit 0: parallel tick), long next job seq
+ *   jobs     int count, then per job: byte kind (1 = MoveToJob), byte state, int priority,
+ *            long seq, int destX, int destY; active jobs first, then pending in hand-out order
+ *   actors   int count, then per actor: short name length, UTF-8 name, int x, int y,
+ *            int index of its current job or -1
+ *   terrain  int chunk shift, int chunk count, then per chunk: byte uniform code,
+ *            byte 1 if packed data follows; then padding to 8 bytes and the packed chunks
+ * </pre>
+ * Packed chunks are not read on load: the terrain keeps the mapping and copies a chunk in the
+ * first time a cell in it is touched.
+ */
+public class WorldSnapshot {
+    public static final int MAGIC = 0x444F5246;     // "DORF"
+    public static final int VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte MOVE_TO_JOB = 1;
+    private static final byte PARALLEL_TICK = 1;
+
+    private WorldSnapshot() {
+    }
+
+    public static void save(World w, Path file) throws IOException {
+        TerrainStorage storage = w.getTerrain().getStorage();
+        JobScheduler scheduler = w.getJobs();
+
+        List<Job> jobs = new ArrayList<Job>(scheduler.activeJobs());
+        jobs.addAll(scheduler.pendingJobs());
+        Map<Job, Integer> jobIndex = new IdentityHashMap<Job, Integer>();
+        for (Job job : jobs) {
+            if (!(job instanceof MoveToJob)) {
+                throw new IllegalArgumentException("Cannot save job type " + job.getClass().getName());
+            }
+            jobIndex.put(job, jobIndex.size());
+        }
+
+        List<byte[]> names = new ArrayList<byte[]>();
+        long size = 4 + 4 + 4 + 4 + 8 + 1 + 8;
+        size += 4 + jobs.size() * (1 + 1 + 4 + 8 + 4 + 4);
+        size += 4;
+        for (Actor a : w.getActors()) {
+            byte[] name = (a.getName() == null) ? new byte[0] : a.getName().getBytes(UTF8);
+            if (name.length > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Actor name too long: " + a.getName());
+            }
+            names.add(name);
+            size += 2 + name.length + 4 + 4 + 4;
+        }
+        int chunks = storage.getChunkCount();
+        int packedChunks = 0;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            if (storage.chunkData(chunk) != null) {
+                packedChunks++;
+            }
+        }
+        size += 4 + 4 + 2L * chunks;
+        long dataStart = align(size);
+        size = dataStart + (long) packedChunks * TerrainStorage.CHUNK_BYTES;
+
+        // Write next to the target and move over it, so a snapshot being read is never truncated
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+            buf.putInt(MAGIC);
+            buf.putInt(VERSION);
+            buf.putInt(w.getTerrain().getWidth());
+            buf.putInt(w.getTerrain().getHeight());
+            buf.putLong(w.getRandom().getState());
+            buf.put(w.isParallelTick() ? PARALLEL_TICK : 0);
+            buf.putLong(scheduler.getNextSeq());
+
+            buf.putInt(jobs.size());
+            for (Job job : jobs) {
+                MoveToJob m = (MoveToJob) job;
+                buf.put(MOVE_TO_JOB);
+                buf.put(job.state);
+                buf.putInt(job.getPriority());
+                buf.putLong(job.seq);
+                buf.putInt(m.getDestX());
+                buf.putInt(m.getDestY());
+            }
+
+            buf.putInt(w.getActors().size());
+            for (int i = 0; i < w.getActors().size(); i++) {
+                Actor a = w.getActors().get(i);
+                byte[] name = names.get(i);
+                buf.putShort((short) name.length);
+                buf.put(name);
+                buf.putInt(a.getX());
+                buf.putInt(a.getY());
+                Integer job = (a.getCurrentJob() == null) ? null : jobIndex.get(a.getCurrentJob());
+                buf.putInt((job == null) ? -1 : job);
+            }
+
+            buf.putInt(TerrainStorage.CHUNK_SHIFT);
+            buf.putInt(chunks);
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                buf.put((byte) storage.uniformCode(chunk));
+                buf.put((byte) ((storage.chunkData(chunk) != null) ? 1 : 0));
+            }
+            buf.position((int) dataStart);
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                byte[] packed = storage.chunkData(chunk);
+                if (packed != null) {
+                    buf.put(packed);
+                }
+            }
+            buf.force();
+        }
+
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public static World load(Path file) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large: " + ch.size() + " bytes");
+            }
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+
+        try {
+            return read(buf);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated snapshot: " + file, e);
+        }
+    }
+
+    private static World read(ByteBuffer buf) throws IOException {
+        if (buf.getInt() != MAGIC) {
+            throw new IOException("Not a world snapshot");
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        int width = buf.getInt();
+        int height = buf.getInt();
+        long randomState = buf.getLong();
+        byte flags = buf.get();
+        long nextSeq = buf.getLong();
+
+        int jobCount = buf.getInt();
+        Job[] jobs = new Job[jobCount];
+        long[] seqs = new long[jobCount];
+        byte[] states = new byte[jobCount];
+        for (int i = 0; i < jobCount; i++) {
+            byte kind = buf.get();
+            if (kind != MOVE_TO_JOB) {
+                throw new IOException("Unknown job kind " + kind);
+            }
+            states[i] = buf.get();
+            int priority = buf.getInt();
+            seqs[i] = buf.getLong();
+            jobs[i] = new MoveToJob(buf.getInt(), buf.getInt());
+            jobs[i].setPriority(priority);
+        }
+
+        int actorCount = buf.getInt();
+        List<Actor> actors = new ArrayList<Actor>(actorCount);
+        for (int i = 0; i < actorCount; i++) {
+            byte[] name = new byte[buf.getShort()];
+            buf.get(name);
+            Actor a = new Actor(new String(name, UTF8), new Loc(buf.getInt(), buf.getInt()));
+            int job = buf.getInt();
+            if (job >= 0) {
+                a.setCurrentJob(jobs[job]);
+            }
+            actors.add(a);
+        }
+
+        int shift = buf.getInt();
+        if (shift != TerrainStorage.CHUNK_SHIFT) {
+            throw new IOException("Snapshot chunk size " + (1 << shift) + " does not match " + TerrainStorage.CHUNK_SIZE);
+        }
+        TerrainStorage storage = new TerrainStorage(width, height, Terrain.SQ.EMPTY.getCode());
+        int chunks = buf.getInt();
+        if (chunks != storage.getChunkCount()) {
+            throw new IOException("Snapshot has " + chunks + " chunks, expected " + storage.getChunkCount());
+        }
+        byte[] table = new byte[2 * chunks];
+        buf.get(table);
+        int offset = (int) align(buf.position());
+        MappedChunks loader = new MappedChunks(buf.duplicate(), chunks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            storage.setUniform(chunk, table[2 * chunk]);
+            if (table[2 * chunk + 1] != 0) {
+                if (offset + TerrainStorage.CHUNK_BYTES > buf.limit()) {
+                    throw new IOException("Truncated terrain data in chunk " + chunk);
+                }
+                loader.offsets[chunk] = offset;
+                storage.setLazy(chunk, loader);
+                offset += TerrainStorage.CHUNK_BYTES;
+            }
+        }
+
+        StateRandom r = new StateRandom();
+        r.setState(randomState);
+        World w = new World(r, new Terrain(r, storage));
+        w.setParallelTick((flags & PARALLEL_TICK) != 0);
+        for (int i = 0; i < jobCount; i++) {
+            w.getJobs().restore(jobs[i], seqs[i], states[i]);
+        }
+        w.getJobs().setNextSeq(Math.max(nextSeq, w.getJobs().getNextSeq()));
+        for (Actor a : actors) {
+            w.addActor(a);
+            if (a.getCurrentJob() != null) {
+                w.jobClaimed(a, a.getCurrentJob());
+            }
+        }
+        return w;
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    /**
+     * Copies packed chunks out of the mapped file. Reads through its own view of the buffer,
+     * since TerrainStorage may load several chunks at once.
+     */
+    private static class MappedChunks implements TerrainStorage.ChunkLoader {
+        private final ByteBuffer buf;
+        private final int[] offsets;
+
+        MappedChunks(ByteBuffer buf, int chunks) {
+            this.buf = buf;
+            this.offsets = new int[chunks];
+        }
+
+        @Override
+        public void load(int chunk, byte[] packed) {
+            ByteBuffer view = buf.duplicate();
+            view.position(offsets[chunk]);
+            view.get(packed);
+        }
+    }
+}
@@ -6,7 +6,9 @@ import java.awt.geom.*;
 import javax.swing.*;
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.sun.java.accessibility.util.AWTEventMonitor.addWindowListener;
 
@@ -15,6 +17,7 @@ public class WorldViewer {
     private final Terrain terrain;
     private final List<Actor> actors;
     private JFrame frame;
+    private MapFrame mapFrame;
 
     public WorldViewer(World w, Terrain terrain, List<Actor> actors) {
         this.world = w;
@@ -23,20 +26,10 @@ public class WorldViewer {
     }
 
     public void show() {
-        JFrame f = new JFrame();
-        this.frame = f;
-
-        f.setLayout(new FlowLayout());
-        f.setSize(new Dimension(500, 500));
-        f.addComponentListener(new ComponentAdapter()
-        {
-            public void componentResized(ComponentEvent evt) {
-                Component c = (Component)evt.getSource();
-                c.invalidate();
-            }
-        });
+        JFrame f = createFrame();
 
-        f.add(new MapFrame(world, terrain, actors));
+        mapFrame = new MapFrame(world, terrain, actors);
+        f.add(mapFrame);
 
         JButton b1 = new JButton("Step");
         b1.setSize(100, 20);
@@ -50,15 +43,64 @@ public class WorldViewer {
         });
         f.add(b1);
 
-        f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         f.pack();
         f.setVisible(true);
     }
 
+    /**
+     * Shows the world while sim ticks it on its own thread. The view never touches the World;
+     * it redraws from sim's latest snapshot at up to fps frames per second.
+     */
+    public void showLive(final SimulationThread sim, int fps) {
+        JFrame f = createFrame();
+
+        mapFrame = new MapFrame(world, terrain, actors, sim);
+        f.add(mapFrame);
+
+        final JToggleButton pause = new JToggleButton("Pause");
+        pause.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent actionEvent) {
+                sim.setPaused(pause.isSelected());
+            }
+        });
+        f.add(pause);
+
+        Timer timer = new Timer(1000 / Math.max(1, fps), new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent actionEvent) {
+                mapFrame.nextFrame();
+            }
+        });
+
+        f.pack();
+        f.setVisible(true);
+        sim.start();
+        timer.start();
+    }
+
+    private JFrame createFrame() {
+        JFrame f = new JFrame();
+        this.frame = f;
+
+        f.setLayout(new FlowLayout());
+        f.setSize(new Dimension(500, 500));
+        f.addComponentListener(new ComponentAdapter()
+        {
+            public void componentResized(ComponentEvent evt) {
+                Component c = (Component)evt.getSource();
+                c.invalidate();
+            }
+        });
+
+        f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        return f;
+    }
+
 
     public void tickButtonActionPerformed(ActionEvent e) {
         WorldViewer.this.world.tick();
-        frame.repaint();
+        mapFrame.ticked();
     };
 
 
@@ -66,11 +108,28 @@ public class WorldViewer {
         private final Terrain map;
         private final List<Actor> actors;
         private final World w;
+        private final TerrainRaster raster;
+        private final Map<Actor, Rectangle> drawn = new HashMap<Actor, Rectangle>();   // cells last drawn per actor
+
+        // Live mode: what is on screen comes from snapshots only
+        private final SimulationThread sim;
+        private RenderSnapshot current;
+        private int[] shownBounds = new int[0];
+        private int shownCount;
 
         public MapFrame(World w, Terrain map, List<Actor> actors) {
+            this(w, map, actors, null);
+        }
+
+        public MapFrame(World w, Terrain map, List<Actor> actors, SimulationThread sim) {
             this.map = map;
             this.actors = actors;
             this.w = w;
+            this.sim = sim;
+            this.raster = new TerrainRaster(map, colors);
+            if (sim != null) {
+                this.current = sim.latest();
+            }
 
             this.setPreferredSize(new Dimension(500,500));
 
@@ -93,26 +152,105 @@ public class WorldViewer {
             return(AlphaComposite.getInstance(type, alpha));
         }
 
+        private int scale() {
+            double pix = Math.min(this.getWidth(), this.getHeight());
+            return (int) (pix/(double) map.getWidth());
+        }
+
+        /**
+         * Repaints only what the last tick changed: cells of terrain that changed, and the old
+         * and new overlay of every actor.
+         */
+        public void ticked() {
+            repaintCells(raster.takeDirty());
+            for (Actor a : actors) {
+                repaintCells(drawn.get(a));
+                repaintCells(overlayBounds(a));
+            }
+        }
+
+        /**
+         * Live mode: picks up the newest snapshot, if there is one, and repaints what differs
+         * from the one on screen.
+         */
+        public void nextFrame() {
+            RenderSnapshot s = sim.latest();
+            repaintCells(raster.takeDirty());
+            if (s == current) {
+                return;
+            }
+            for (int i = 0; i < shownCount; i++) {
+                repaintCells(shownBounds, i);
+            }
+
+            current = s;
+            shownCount = s.getActorCount();
+            if (shownBounds.length < 4 * shownCount) {
+                shownBounds = new int[4 * shownCount];
+            }
+            int[] b = new int[4];
+            for (int i = 0; i < shownCount; i++) {
+                s.getBounds(i, b);
+                System.arraycopy(b, 0, shownBounds, 4 * i, 4);
+                repaintCells(shownBounds, i);
+            }
+        }
+
+        private void repaintCells(int[] bounds, int i) {
+            int x = bounds[4 * i];
+            int y = bounds[4 * i + 1];
+            repaintCells(new Rectangle(x, y, bounds[4 * i + 2] - x + 1, bounds[4 * i + 3] - y + 1));
+        }
+
+        private void repaintCells(Rectangle cells) {
+            if (cells == null) {
+                return;
+            }
+            int scale = scale();
+            // Labels are drawn to the right of their cell, so leave room for them
+            int margin = scale + 16;
+            repaint(cells.x * scale - margin, cells.y * scale - margin,
+                    cells.width * scale + 2 * margin, cells.height * scale + 2 * margin);
+        }
+
+        // Cells covered by an actor's marker, its target and its path
+        private Rectangle overlayBounds(Actor a) {
+            Rectangle r = new Rectangle(a.getX(), a.getY(), 1, 1);
+            Job j = a.getCurrentJob();
+            if (j instanceof MoveToJob) {
+                MoveToJob m = (MoveToJob) j;
+                r.add(new Rectangle(m.getDestX(), m.getDestY(), 1, 1));
+                List<Loc> path = w.findPath(a.getLoc(), m.getDest());
+                if (path != null) {
+                    for (Loc loc : path) {
+                        r.add(new Rectangle(loc.getX(), loc.getY(), 1, 1));
+                    }
+                }
+            }
+            return r;
+        }
+
         public void paint(Graphics g) {
             Graphics2D g2d = (Graphics2D) g;
             float alpha = 0.10f;
 
-            double pix = Math.min(this.getWidth(), this.getHeight());
-            int scale = (int) (pix/(double) map.getBounds()[0]);
+            int scale = scale();
+            Rectangle clip = g.getClipBounds();
 
-            for (int x = 0; x < map.getBounds()[0]; x++) {
-                for (int y = 0; y < map.getBounds()[1]; y++) {
-                    paintSq(g, scale, x, y);
-                }
+            raster.paint(g, scale);
+            if (sim != null) {
+                paintSnapshot(g2d, scale, clip, alpha);
+                return;
             }
 
             for (Actor a : actors) {
+                drawn.put(a, new Rectangle(a.getX(), a.getY(), 1, 1));
                 Job j = a.getCurrentJob();
                 if (j instanceof MoveToJob) {
                     MoveToJob m = (MoveToJob) j;
                     Loc src = a.getLoc();
                     Loc dst = m.getDest();
-                    AStar aStar = w.getAStar();
+                    drawn.put(a, overlayBounds(a));
 
                     g.setColor(Color.BLACK);
                     drawTextAt(g, dst, scale, "X");
@@ -120,10 +258,12 @@ public class WorldViewer {
 
                     Composite originalComposite = g2d.getComposite();
                     g2d.setComposite(makeComposite(alpha));
-                    List<Loc> results = aStar.solve(src, dst);
+                    List<Loc> results = w.findPath(src, dst);
                     if (results != null) {
                         for (Loc loc : results) {
-                            paintSqColor(g, scale, loc.getX(), loc.getY(), Color.blue);
+                            if ((clip == null) || clip.intersects(loc.getX() * scale, loc.getY() * scale, scale, scale)) {
+                                paintSqColor(g, scale, loc.getX(), loc.getY(), Color.blue);
+                            }
                         }
                     }
 
@@ -132,12 +272,39 @@ public class WorldViewer {
             }
         }
 
+        private void paintSnapshot(Graphics2D g2d, int scale, Rectangle clip, float alpha) {
+            RenderSnapshot s = current;
+            for (int i = 0; i < s.getActorCount(); i++) {
+                if (!s.hasTarget(i)) {
+                    continue;
+                }
+                g2d.setColor(Color.BLACK);
+                drawTextAt(g2d, s.getDestX(i), s.getDestY(i), scale, "X");
+                drawTextAt(g2d, s.getX(i), s.getY(i), scale, String.valueOf(s.getLabel(i)));
+
+                Composite originalComposite = g2d.getComposite();
+                g2d.setComposite(makeComposite(alpha));
+                for (int step = 0; step < s.getPathLength(i); step++) {
+                    int x = s.getPathX(i, step);
+                    int y = s.getPathY(i, step);
+                    if ((clip == null) || clip.intersects(x * scale, y * scale, scale, scale)) {
+                        paintSqColor(g2d, scale, x, y, Color.blue);
+                    }
+                }
+                g2d.setComposite(originalComposite);
+            }
+        }
+
         private void drawTextAt(Graphics g, Loc loc, int scale, String text) {
+            drawTextAt(g, loc.getX(), loc.getY(), scale, text);
+        }
+
+        private void drawTextAt(Graphics g, int cellX, int cellY, int scale, String text) {
             Graphics2D g2d = (Graphics2D) g;
             FontMetrics fm = g.getFontMetrics();
 
-            int x = loc.getX() * scale;
-            int y = loc.getY() * scale;
+            int x = cellX * scale;
+            int y = cellY * scale;
 
             // Absolute...
             x += fm.stringWidth(text) + 2;
@@ -147,11 +314,6 @@ public class WorldViewer {
             g.drawString(text, x, y);
         }
 
-        private void paintSq(Graphics g, int scale, int x, int y) {
-            Color color = colors[map.get(x, y).getCode()];
-            paintSqColor(g, scale, x, y, color);
-        }
-
         private void paintSqColor(Graphics g, int scale, int x, int y, Color color) {
             Graphics2D g2d = (Graphics2D) g;
 